@@ -12,7 +12,9 @@
  * the user side.
  */
 
-
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 // Define the abstract base class for order handlers.
 abstract class OrderHandler {
@@ -23,6 +25,35 @@ abstract class OrderHandler {
     }
 
     public abstract void processOrder(String order);
+
+    // Does only this handler's own step, without passing the order on.
+    // Returns false if the order should not go any further down the chain.
+    public abstract boolean handle(String order);
+
+    // Batch version of processOrder. The orders that pass this handler go down the chain
+    // together as one batch; the ones that fail any stage are returned to the caller.
+    public List<String> processOrders(List<String> orders) {
+        List<String> failed = new ArrayList<>();
+        List<String> passed = handleBatch(orders, failed);
+        if (nextHandler != null && !passed.isEmpty()) {
+            failed.addAll(nextHandler.processOrders(passed));
+        }
+        return failed;
+    }
+
+    // By default a batch is just handled one order at a time.
+    // Handlers that can do the whole batch in one go (e.g. payments) override this.
+    protected List<String> handleBatch(List<String> orders, List<String> failed) {
+        List<String> passed = new ArrayList<>(orders.size());
+        for (String order : orders) {
+            if (handle(order)) {
+                passed.add(order);
+            } else {
+                failed.add(order);
+            }
+        }
+        return passed;
+    }
 }
 
 // Concrete handler for order validation.
@@ -33,14 +64,18 @@ class OrderValidationHandler extends OrderHandler {
 
     @Override
     public void processOrder(String order) {
-        System.out.println("Validating order: " + order);
-        // Perform order validation logic here
-
         // If the order is valid, pass it to the next handler
-        if (nextHandler != null) {
+        if (handle(order) && nextHandler != null) {
             nextHandler.processOrder(order);
         }
     }
+
+    @Override
+    public boolean handle(String order) {
+        System.out.println("Validating order: " + order);
+        // Perform order validation logic here
+        return !order.isBlank();
+    }
 }
 
 // Concrete handler for payment processing.
@@ -51,14 +86,25 @@ class PaymentProcessingHandler extends OrderHandler {
 
     @Override
     public void processOrder(String order) {
-        System.out.println("Processing payment for order: " + order);
-        // Perform payment processing logic here
-
         // If payment is successful, pass it to the next handler
-        if (nextHandler != null) {
+        if (handle(order) && nextHandler != null) {
             nextHandler.processOrder(order);
         }
     }
+
+    @Override
+    public boolean handle(String order) {
+        System.out.println("Processing payment for order: " + order);
+        // Perform payment processing logic here
+        return true;
+    }
+
+    @Override
+    protected List<String> handleBatch(List<String> orders, List<String> failed) {
+        System.out.println("Processing payment for orders: " + orders);
+        // Authorize the whole batch with the payment gateway in a single call here
+        return orders;
+    }
 }
 
 // Concrete handler for order preparation.
@@ -69,14 +115,18 @@ class OrderPreparationHandler extends OrderHandler {
 
     @Override
     public void processOrder(String order) {
-        System.out.println("Preparing order: " + order);
-        // Perform order preparation logic here
-
         // If preparation is complete, pass it to the next handler
-        if (nextHandler != null) {
+        if (handle(order) && nextHandler != null) {
             nextHandler.processOrder(order);
         }
     }
+
+    @Override
+    public boolean handle(String order) {
+        System.out.println("Preparing order: " + order);
+        // Perform order preparation logic here
+        return true;
+    }
 }
 
 // Concrete handler for delivery assignment.
@@ -87,14 +137,18 @@ class DeliveryAssignmentHandler extends OrderHandler {
 
     @Override
     public void processOrder(String order) {
-        System.out.println("Assigning delivery for order: " + order);
-        // Perform delivery assignment logic here
-
         // If delivery is assigned, pass it to the next handler
-        if (nextHandler != null) {
+        if (handle(order) && nextHandler != null) {
             nextHandler.processOrder(order);
         }
     }
+
+    @Override
+    public boolean handle(String order) {
+        System.out.println("Assigning delivery for order: " + order);
+        // Perform delivery assignment logic here
+        return true;
+    }
 }
 
 // Concrete handler for order tracking.
@@ -105,8 +159,540 @@ class OrderTrackingHandler extends OrderHandler {
 
     @Override
     public void processOrder(String order) {
+        handle(order);
+    }
+
+    @Override
+    public boolean handle(String order) {
         System.out.println("Tracking order: " + order);
         // Perform order tracking logic here
+        return true;
+    }
+}
+
+// Concrete handler for fraud checks. Not part of the default chain; it gets
+// added at runtime in front of payments (see SwappableOrderChain).
+class FraudCheckHandler extends OrderHandler {
+    public FraudCheckHandler(OrderHandler nextHandler) {
+        super(nextHandler);
+    }
+
+    @Override
+    public void processOrder(String order) {
+        // If the order looks genuine, pass it to the next handler
+        if (handle(order) && nextHandler != null) {
+            nextHandler.processOrder(order);
+        }
+    }
+
+    @Override
+    public boolean handle(String order) {
+        System.out.println("Checking order for fraud: " + order);
+        // Perform fraud detection logic here
+        return true;
+    }
+}
+
+// Pipelined version of the same chain.
+// Every handler becomes a stage with its own worker pool and bounded queue, so a slow stage
+// (say payment) only holds up its own queue instead of the caller's thread.
+// Orders move from stage to stage asynchronously and the caller gets a future per order,
+// which completes with true if the order made it through every stage.
+class PipelinedOrderChain {
+    private final List<OrderHandler> stages = new ArrayList<>();
+    private final List<ExecutorService> executors = new ArrayList<>();
+
+    public PipelinedOrderChain(OrderHandler head, int workersPerStage, int queueCapacity) {
+        for (OrderHandler h = head; h != null; h = h.nextHandler) {
+            stages.add(h);
+            // When a stage's queue is full, the thread handing the order over runs it itself.
+            // That slows the upstream stage down instead of letting orders pile up.
+            // Once the stage is shut down it throws instead: CallerRunsPolicy would silently drop
+            // the order and its future would never complete.
+            executors.add(new ThreadPoolExecutor(workersPerStage, workersPerStage,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                (task, executor) -> {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Pipeline is shut down");
+                    }
+                    task.run();
+                }));
+        }
+    }
+
+    public CompletableFuture<Boolean> submit(String order) {
+        CompletableFuture<Boolean> result = CompletableFuture.completedFuture(true);
+        for (int i = 0; i < stages.size(); i++) {
+            OrderHandler stage = stages.get(i);
+            result = result.thenApplyAsync(ok -> ok && stage.handle(order), executors.get(i));
+        }
+        return result;
+    }
+
+    // Stops the stages front to back, letting each one drain before the next is stopped,
+    // so orders still in flight are handed on and finish instead of being lost between stages.
+    public void shutdown() {
+        try {
+            for (ExecutorService executor : executors) {
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executors.forEach(ExecutorService::shutdownNow);
+        }
+    }
+}
+
+// Latency histogram in the style of HdrHistogram: values below 16 get their own bucket, and
+// every power of two above that is split into 16 sub-buckets (about 6% precision).
+// Recording is one array increment, with no allocation, so it is fine on the hot path.
+class LatencyHistogram {
+    private static final int SUB_BUCKETS = 16;
+    private final AtomicLongArray counts = new AtomicLongArray(60 * SUB_BUCKETS);
+
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    // Same value seen `count` times, e.g. the per-order share of a batch
+    public void record(long nanos, long count) {
+        counts.addAndGet(indexOf(Math.max(0, nanos)), count);
+    }
+
+    // Value at the given percentile (0-100), as the lower bound of its bucket.
+    public long percentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return valueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (highestBit - 4)) & (SUB_BUCKETS - 1));
+        return (highestBit - 3) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long valueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int highestBit = index / SUB_BUCKETS + 3;
+        int subBucket = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (highestBit - 4);
+    }
+}
+
+// Point-in-time numbers for one handler, as returned by ChainMetrics.snapshot()
+class HandlerStats {
+    private final String handler;
+    private final long invocations;
+    private final long errors;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+
+    public HandlerStats(String handler, long invocations, long errors,
+                        long p50Nanos, long p99Nanos, long p999Nanos) {
+        this.handler = handler;
+        this.invocations = invocations;
+        this.errors = errors;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+    }
+
+    public String getHandler() { return handler; }
+    public long getInvocations() { return invocations; }
+    public long getErrors() { return errors; }
+    public long getP50Nanos() { return p50Nanos; }
+    public long getP99Nanos() { return p99Nanos; }
+    public long getP999Nanos() { return p999Nanos; }
+
+    @Override
+    public String toString() {
+        return handler + " calls=" + invocations + " errors=" + errors
+            + " p50=" + p50Nanos + "ns p99=" + p99Nanos + "ns p999=" + p999Nanos + "ns";
+    }
+}
+
+// Wraps a handler and measures its own step. The wrapped handler's nextHandler is never used;
+// the wrapper has its own next, so a whole chain can be wrapped without touching the handlers.
+class InstrumentedHandler extends OrderHandler {
+    private final OrderHandler delegate;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public InstrumentedHandler(OrderHandler delegate, OrderHandler nextHandler) {
+        super(nextHandler);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void processOrder(String order) {
+        if (handle(order) && nextHandler != null) {
+            nextHandler.processOrder(order);
+        }
+    }
+
+    @Override
+    public boolean handle(String order) {
+        long start = System.nanoTime();
+        try {
+            return delegate.handle(order);
+        } catch (RuntimeException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            latency.record(System.nanoTime() - start);
+            invocations.increment();
+        }
+    }
+
+    // A batch counts once per order, and each order is recorded with its share of the batch's
+    // time, so the percentiles stay per-order whether orders come one by one or in batches.
+    @Override
+    protected List<String> handleBatch(List<String> orders, List<String> failed) {
+        long start = System.nanoTime();
+        try {
+            return delegate.handleBatch(orders, failed);
+        } catch (RuntimeException e) {
+            errors.increment();
+            throw e;
+        } finally {
+            if (!orders.isEmpty()) {
+                latency.record((System.nanoTime() - start) / orders.size(), orders.size());
+            }
+            invocations.add(orders.size());
+        }
+    }
+
+    public HandlerStats snapshot() {
+        return new HandlerStats(delegate.getClass().getSimpleName(), invocations.sum(), errors.sum(),
+            latency.percentile(50), latency.percentile(99), latency.percentile(99.9));
+    }
+}
+
+// Wraps every handler of a chain in an InstrumentedHandler and lets us scrape their stats.
+class ChainMetrics {
+    private final List<InstrumentedHandler> handlers = new ArrayList<>();
+    private final OrderHandler head;
+
+    public ChainMetrics(OrderHandler chain) {
+        List<OrderHandler> stages = new ArrayList<>();
+        for (OrderHandler h = chain; h != null; h = h.nextHandler) {
+            stages.add(h);
+        }
+        OrderHandler next = null;
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            InstrumentedHandler wrapped = new InstrumentedHandler(stages.get(i), next);
+            handlers.add(0, wrapped);
+            next = wrapped;
+        }
+        this.head = next;
+    }
+
+    // Head of the instrumented chain; send orders here instead of the original head
+    public OrderHandler getHead() {
+        return head;
+    }
+
+    public List<HandlerStats> snapshot() {
+        List<HandlerStats> stats = new ArrayList<>();
+        for (InstrumentedHandler handler : handlers) {
+            stats.add(handler.snapshot());
+        }
+        return stats;
+    }
+}
+
+// What happened to an order sent through a SheddingOrderChain
+enum OrderOutcome {
+    COMPLETED, // went through every stage
+    REJECTED,  // a stage decided the order should not go further
+    SHED       // turned away at the door because some stage was overloaded
+}
+
+// Concurrency limit for one stage that adapts to how fast the stage is answering (AIMD).
+// Calls under the target latency grow the limit by 1/limit each, so about one step per limit's
+// worth of calls, however fast they come. A slow call cuts it by 10%, but only once per round
+// trip: slow calls that were already running when the last cut happened are ignored, so a burst
+// of them counts as one congestion signal instead of shrinking the limit N times over.
+class AdaptiveLimit {
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastDecrease;
+    private volatile double estimate;
+    private volatile int limit;
+
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, long targetLatencyNanos) {
+        this.limit = initialLimit;
+        this.estimate = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.targetLatencyNanos = targetLatencyNanos;
+        this.lastDecrease = new AtomicLong(System.nanoTime());
+    }
+
+    public boolean tryAcquire() {
+        if (inFlight.incrementAndGet() > limit) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public void release() {
+        inFlight.decrementAndGet();
+    }
+
+    public void onSample(long latencyNanos) {
+        // Racing increases can lose a step now and then, which is fine for a limit estimate
+        if (latencyNanos > targetLatencyNanos) {
+            long now = System.nanoTime();
+            long last = lastDecrease.get();
+            // Started before the last cut: its slowness has already been acted on
+            if (now - latencyNanos - last < 0 || !lastDecrease.compareAndSet(last, now)) {
+                return;
+            }
+            estimate = Math.max(minLimit, estimate * 0.9);
+        } else {
+            estimate = Math.min(maxLimit, estimate + 1.0 / Math.max(1, limit));
+        }
+        limit = (int) estimate;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
+
+// Admission control in front of the chain.
+// An order is only let in if every stage has room for it right now. Otherwise it is shed
+// straight away, so under overload callers get a fast SHED instead of waiting in a queue.
+// Room is reserved for all stages up front; an order is never dropped halfway, after payment.
+// The price is that an order holds its slot in every stage for its whole trip through the
+// chain, not just while that stage is working on it. So the tightest stage limit effectively
+// caps the whole chain, and the per-stage limits behave more like one chain-wide limit.
+class SheddingOrderChain {
+    private final OrderHandler[] stages;
+    private final AdaptiveLimit[] limits;
+
+    public SheddingOrderChain(OrderHandler head, int initialLimit, int maxLimit, long targetLatencyNanos) {
+        this.stages = ChainCompiler.compile(head).getStages();
+        this.limits = new AdaptiveLimit[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            limits[i] = new AdaptiveLimit(initialLimit, 1, maxLimit, targetLatencyNanos);
+        }
+    }
+
+    public OrderOutcome process(String order) {
+        int acquired = 0;
+        while (acquired < limits.length && limits[acquired].tryAcquire()) {
+            acquired++;
+        }
+        if (acquired < limits.length) {
+            for (int i = 0; i < acquired; i++) {
+                limits[i].release();
+            }
+            return OrderOutcome.SHED;
+        }
+
+        int next = 0;
+        try {
+            while (next < stages.length) {
+                OrderHandler stage = stages[next];
+                AdaptiveLimit limit = limits[next++];
+                long start = System.nanoTime();
+                boolean passed;
+                try {
+                    passed = stage.handle(order);
+                } finally {
+                    limit.onSample(System.nanoTime() - start);
+                    limit.release();
+                }
+                if (!passed) {
+                    return OrderOutcome.REJECTED;
+                }
+            }
+            return OrderOutcome.COMPLETED;
+        } finally {
+            // Give back the slots of the stages the order never reached
+            for (int i = next; i < stages.length; i++) {
+                limits[i].release();
+            }
+        }
+    }
+
+    public int getLimit(int stage) {
+        return limits[stage].getLimit();
+    }
+}
+
+// Chain that can be rewired while orders are flowing.
+// The current chain is an immutable CompiledOrderChain behind an AtomicReference. Every order
+// reads it once and runs to the end on that version, so in-flight orders finish on the old chain
+// while new orders pick up the new one. Changes build a new array and swap it in with a CAS;
+// the per-order path never takes a lock.
+class SwappableOrderChain {
+    private final AtomicReference<CompiledOrderChain> current;
+
+    public SwappableOrderChain(OrderHandler head) {
+        this.current = new AtomicReference<>(ChainCompiler.compile(head));
+    }
+
+    public boolean process(String order) {
+        return current.get().process(order);
+    }
+
+    // Replaces the whole chain
+    public void swap(OrderHandler head) {
+        current.set(ChainCompiler.compile(head));
+    }
+
+    public void insertBefore(Class<? extends OrderHandler> target, OrderHandler handler) {
+        current.updateAndGet(chain -> {
+            List<OrderHandler> stages = new ArrayList<>(Arrays.asList(chain.getStages()));
+            stages.add(indexOf(stages, target), handler);
+            return new CompiledOrderChain(stages.toArray(new OrderHandler[0]));
+        });
+    }
+
+    public void remove(Class<? extends OrderHandler> target) {
+        current.updateAndGet(chain -> {
+            List<OrderHandler> stages = new ArrayList<>(Arrays.asList(chain.getStages()));
+            stages.remove(indexOf(stages, target));
+            return new CompiledOrderChain(stages.toArray(new OrderHandler[0]));
+        });
+    }
+
+    private static int indexOf(List<OrderHandler> stages, Class<? extends OrderHandler> target) {
+        for (int i = 0; i < stages.size(); i++) {
+            if (target.isInstance(stages.get(i))) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No " + target.getSimpleName() + " in the chain");
+    }
+}
+
+// Handler that does nothing and always lets the order through.
+// Only used to build long chains for benchmarking.
+class PassThroughHandler extends OrderHandler {
+    public PassThroughHandler(OrderHandler nextHandler) {
+        super(nextHandler);
+    }
+
+    @Override
+    public void processOrder(String order) {
+        if (handle(order) && nextHandler != null) {
+            nextHandler.processOrder(order);
+        }
+    }
+
+    @Override
+    public boolean handle(String order) {
+        return order != null;
+    }
+}
+
+// Flat version of a chain: the handlers are copied into an array once, and processing is a
+// plain loop over it. No recursion, so long chains don't mean deep stacks, and each stage
+// tells the loop whether to continue or stop through the result of handle().
+class CompiledOrderChain {
+    private final OrderHandler[] stages;
+
+    public CompiledOrderChain(OrderHandler[] stages) {
+        this.stages = stages;
+    }
+
+    public boolean process(String order) {
+        for (OrderHandler stage : stages) {
+            if (!stage.handle(order)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public OrderHandler[] getStages() {
+        return stages.clone();
+    }
+}
+
+class ChainCompiler {
+    public static CompiledOrderChain compile(OrderHandler head) {
+        List<OrderHandler> stages = new ArrayList<>();
+        for (OrderHandler h = head; h != null; h = h.nextHandler) {
+            stages.add(h);
+        }
+        return new CompiledOrderChain(stages.toArray(new OrderHandler[0]));
+    }
+}
+
+// Rough comparison of the recursive chain against the compiled one.
+// Run with: java ChainBenchmark (use a JMH harness for numbers you want to rely on)
+class ChainBenchmark {
+    public static void main(String[] args) {
+        int iterations = 200_000;
+        for (int length : new int[] {5, 50, 500}) {
+            OrderHandler head = null;
+            for (int i = 0; i < length; i++) {
+                head = new PassThroughHandler(head);
+            }
+            CompiledOrderChain compiled = ChainCompiler.compile(head);
+            OrderHandler instrumented = new ChainMetrics(head).getHead();
+
+            // Warm up all paths before timing
+            for (int i = 0; i < iterations; i++) {
+                head.processOrder("order");
+                compiled.process("order");
+                instrumented.processOrder("order");
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                head.processOrder("order");
+            }
+            long recursive = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                compiled.process("order");
+            }
+            long flat = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                instrumented.processOrder("order");
+            }
+            long measured = System.nanoTime() - start;
+
+            System.out.println(length + " handlers: recursive " + (recursive / iterations)
+                + " ns/order, compiled " + (flat / iterations)
+                + " ns/order, instrumented " + (measured / iterations) + " ns/order");
+        }
     }
 }
 
@@ -123,5 +709,38 @@ public class SwiggyOrder {
         // Simulate an order being placed
         String order = "Pizza";
         orderProcessingChain.processOrder(order);
+
+        // Same handlers, but each one runs as its own pipeline stage
+        PipelinedOrderChain pipeline = new PipelinedOrderChain(orderProcessingChain, 2, 100);
+        List<CompletableFuture<Boolean>> inFlight = new ArrayList<>();
+        for (String o : List.of("Burger", "Biryani", "Dosa")) {
+            inFlight.add(pipeline.submit(o));
+        }
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).join();
+        pipeline.shutdown();
+
+        // Batch mode: the whole list travels down the chain together
+        List<String> failed = orderProcessingChain.processOrders(List.of("Pasta", " ", "Momos"));
+        System.out.println("Failed orders: " + failed.size());
+
+        // Compiled mode: the chain flattened into a loop over its handlers
+        CompiledOrderChain compiled = ChainCompiler.compile(orderProcessingChain);
+        compiled.process("Noodles");
+
+        // Instrumented mode: same chain, with per-handler counters and latency percentiles
+        ChainMetrics metrics = new ChainMetrics(orderProcessingChain);
+        metrics.getHead().processOrder("Salad");
+        for (HandlerStats stats : metrics.snapshot()) {
+            System.out.println(stats);
+        }
+
+        // Load shedding mode: orders are turned away when a stage is at its concurrency limit
+        SheddingOrderChain guarded = new SheddingOrderChain(orderProcessingChain, 10, 100, 50_000_000L);
+        System.out.println("Outcome: " + guarded.process("Thali"));
+
+        // Hot-swappable mode: add a fraud check before payments without stopping traffic
+        SwappableOrderChain live = new SwappableOrderChain(orderProcessingChain);
+        live.insertBefore(PaymentProcessingHandler.class, new FraudCheckHandler(null));
+        live.process("Rolls");
     }
 }
\ No newline at end of file
@@ -1,6 +1,14 @@
 // REFER ZOHO NOTES BY SHRAYANSH (UDEMY) (Ignore below code)
 // Not much asked in interview also
 // Here, we have to interpret a expression using context
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
 public class Context {
 
     private String input;
@@ -33,6 +41,71 @@ public class Context {
     
 }
 
+// Same as Context, but the input is never cut down.
+// It keeps the whole CharSequence and an index (cursor) into it, and expressions
+// move the cursor forward instead of calling substring(), so no Strings get created.
+// limit marks where the numeral ends, so one context can walk many numerals in a big buffer.
+public class CursorContext {
+
+    private CharSequence input;
+    private int cursor;
+    private int limit;
+    private int output;
+
+    public CursorContext(CharSequence input)
+    {
+        this.input = input;
+        this.limit = input.length();
+    }
+
+    // Points the context at the numeral in [from, to) and clears the output
+    public void reset(int from, int to)
+    {
+        this.cursor = from;
+        this.limit = to;
+        this.output = 0;
+    }
+
+    public boolean hasInput()
+    {
+        return cursor < limit;
+    }
+
+    public boolean startsWith(String symbol)
+    {
+        if (cursor + symbol.length() > limit)
+        return false;
+
+        for (int i = 0; i < symbol.length(); i++)
+        {
+        if (input.charAt(cursor + i) != symbol.charAt(i))
+            return false;
+        }
+        return true;
+    }
+
+    public void advance(int count)
+    {
+        cursor = Math.min(limit, cursor + count);
+    }
+
+    public int getCursor()
+    {
+        return cursor;
+    }
+
+    public int getOutput()
+    {
+        return output;
+    }
+
+    public void setOutput(int output)
+    {
+        this.output = output;
+    }
+
+}
+
 public abstract class Expression {
 
     public void interpret(Context context)
@@ -63,6 +136,35 @@ public abstract class Expression {
         }
     }
 
+    // Same rules as above, but walks a CursorContext by index instead of cutting substrings
+    public void interpret(CursorContext context)
+    {
+        if (!context.hasInput()) 
+        return;
+
+        if (context.startsWith(nine()))
+        {
+        context.setOutput(context.getOutput() + (9 * multiplier()));
+        context.advance(2);
+        }
+        else if (context.startsWith(four()))
+        {
+        context.setOutput(context.getOutput() + (4 * multiplier()));
+        context.advance(2);
+        }
+        else if (context.startsWith(five()))
+        {
+        context.setOutput(context.getOutput() + (5 * multiplier()));
+        context.advance(1);
+        }
+
+        while (context.startsWith(one()))
+        {
+        context.setOutput(context.getOutput() + (1 * multiplier()));
+        context.advance(1);
+        }
+    }
+
     public abstract String one();
     public abstract String four();
     public abstract String five();
@@ -104,6 +206,550 @@ public class OneExpression  extends Expression{
     public int multiplier() { return 1; }
 }
 
+// Read-only CharSequence view over ASCII bytes, so a CursorContext can read
+// numerals straight out of a (memory-mapped) ByteBuffer
+public class ByteCharSequence implements CharSequence {
+
+    private final ByteBuffer bytes;
+
+    public ByteCharSequence(ByteBuffer bytes)
+    {
+        this.bytes = bytes;
+    }
+
+    public int length()
+    {
+        return bytes.limit();
+    }
+
+    public char charAt(int index)
+    {
+        return (char) (bytes.get(index) & 0xFF);
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+        return toString().substring(start, end);
+    }
+
+    public String toString()
+    {
+        byte[] copy = new byte[bytes.limit()];
+        bytes.duplicate().position(0).get(copy);
+        return new String(copy, java.nio.charset.StandardCharsets.US_ASCII);
+    }
+}
+
+// Decodes a file with one Roman numeral per line, using the same expression tree.
+// The file is memory-mapped and split at line boundaries into one chunk per thread; each
+// thread walks its chunk with a CursorContext over the mapped bytes, so no Strings are created.
+// Results go into an int[] (or an output file of 4-byte ints), one per line, in file order.
+public class RomanFileDecoder {
+
+    private final List<Expression> tree;
+
+    public RomanFileDecoder(List<Expression> tree)
+    {
+        this.tree = tree;
+    }
+
+    public int[] decode(Path input, int threads) throws IOException
+    {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ))
+        {
+            MappedByteBuffer bytes = map(in, input);
+            int[] starts = splitAtLines(bytes, threads);
+            int[] firstLine = countLines(bytes, starts);
+            int[] output = new int[firstLine[firstLine.length - 1]];
+            decodeChunks(bytes, starts, firstLine, IntBuffer.wrap(output));
+            return output;
+        }
+    }
+
+    // Same as decode(), but the results are written to a mapped output file instead of the heap
+    public void decode(Path input, Path output, int threads) throws IOException
+    {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                 StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            MappedByteBuffer bytes = map(in, input);
+            int[] starts = splitAtLines(bytes, threads);
+            int[] firstLine = countLines(bytes, starts);
+            long lines = firstLine[firstLine.length - 1];
+            IntBuffer results = out.map(FileChannel.MapMode.READ_WRITE, 0, lines * 4).asIntBuffer();
+            decodeChunks(bytes, starts, firstLine, results);
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel in, Path input) throws IOException
+    {
+        if (in.size() > Integer.MAX_VALUE)
+        throw new IOException("File too large to map in one piece, split it first: " + input);
+
+        return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+    }
+
+    // Chunk t covers [starts[t], starts[t + 1]); every chunk starts at the beginning of a line
+    private static int[] splitAtLines(ByteBuffer bytes, int threads)
+    {
+        int size = bytes.limit();
+        int[] starts = new int[threads + 1];
+        starts[threads] = size;
+        for (int t = 1; t < threads; t++)
+        {
+            int pos = Math.max(starts[t - 1], (int) ((long) size * t / threads));
+            while (pos < size && pos > 0 && bytes.get(pos - 1) != '\n')
+            pos++;
+            starts[t] = pos;
+        }
+        return starts;
+    }
+
+    // firstLine[t] is the index of chunk t's first line in the output; the last entry is the total
+    private int[] countLines(ByteBuffer bytes, int[] starts) throws IOException
+    {
+        int chunks = starts.length - 1;
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int t = 0; t < chunks; t++)
+        {
+            int from = starts[t];
+            int to = starts[t + 1];
+            tasks.add(() -> {
+                int lines = 0;
+                for (int i = from; i < to; i++)
+                {
+                    if (bytes.get(i) == '\n')
+                    lines++;
+                }
+                if (to > from && bytes.get(to - 1) != '\n')
+                lines++;
+                return lines;
+            });
+        }
+        List<Integer> counts = runAll(tasks);
+        int[] firstLine = new int[chunks + 1];
+        for (int t = 0; t < chunks; t++)
+        {
+            firstLine[t + 1] = firstLine[t] + counts.get(t);
+        }
+        return firstLine;
+    }
+
+    private void decodeChunks(ByteBuffer bytes, int[] starts, int[] firstLine, IntBuffer results) throws IOException
+    {
+        CharSequence input = new ByteCharSequence(bytes);
+        List<Callable<Integer>> tasks = new ArrayList<>();
+        for (int t = 0; t < starts.length - 1; t++)
+        {
+            int from = starts[t];
+            int to = starts[t + 1];
+            int line = firstLine[t];
+            tasks.add(() -> {
+                CursorContext context = new CursorContext(input);
+                int index = line;
+                int lineStart = from;
+                while (lineStart < to)
+                {
+                    int lineEnd = lineStart;
+                    while (lineEnd < to && input.charAt(lineEnd) != '\n')
+                    lineEnd++;
+
+                    int end = lineEnd;
+                    if (end > lineStart && input.charAt(end - 1) == '\r')
+                    end--;
+
+                    context.reset(lineStart, end);
+                    for (Expression exp : tree)
+                    {
+                        exp.interpret(context);
+                    }
+                    results.put(index++, context.getOutput());
+                    lineStart = lineEnd + 1;
+                }
+                return index - line;
+            });
+        }
+        runAll(tasks);
+    }
+
+    private static <T> List<T> runAll(List<Callable<T>> tasks) throws IOException
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+        try
+        {
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : pool.invokeAll(tasks))
+            {
+                results.add(future.get());
+            }
+            return results;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Decoding interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            throw new IOException("Decoding failed", e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+}
+
+// Compiled form of an expression tree: a state machine (DFA) over input characters.
+// Every expression gets three states: at its start, inside its run of one() symbols, and
+// "saw a character that may begin nine() or four()". For every state and character the table
+// holds the next state and the value to add, so decoding is a loop of two array lookups.
+// It follows the same rules as Expression.interpret for Roman letters. Any character that no
+// expression uses simply ends the numeral (blank symbols such as " " are ignored).
+public class RomanDfa {
+
+    private static final int ALPHABET = 128;
+    private static final int START = 0, ONES = 1, PENDING = 2;
+
+    private final int stop;
+    private final int[] next;
+    private final int[] add;
+    private final int[] endAdd;
+
+    private final String[] ones, fours, fives, nines;
+    private final int[] multipliers;
+
+    private RomanDfa(List<Expression> tree)
+    {
+        int n = tree.size();
+        ones = new String[n];
+        fours = new String[n];
+        fives = new String[n];
+        nines = new String[n];
+        multipliers = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            Expression exp = tree.get(i);
+            ones[i] = symbol(exp.one());
+            fours[i] = symbol(exp.four());
+            fives[i] = symbol(exp.five());
+            nines[i] = symbol(exp.nine());
+            multipliers[i] = exp.multiplier();
+            check(exp, i);
+        }
+
+        stop = 3 * n;
+        next = new int[(stop + 1) * ALPHABET];
+        add = new int[(stop + 1) * ALPHABET];
+        endAdd = new int[stop + 1];
+        for (int state = 0; state <= stop; state++)
+        {
+            for (char c = 0; c < ALPHABET; c++)
+            {
+                int[] step = step(state, c);
+                next[state * ALPHABET + c] = step[0];
+                add[state * ALPHABET + c] = step[1];
+            }
+            if (state < stop && state % 3 == PENDING)
+            endAdd[state] = multipliers[state / 3];
+        }
+    }
+
+    public static RomanDfa compile(List<Expression> tree)
+    {
+        return new RomanDfa(tree);
+    }
+
+    public int decode(CharSequence input)
+    {
+        return decode(input, 0, input.length());
+    }
+
+    public int decode(CharSequence input, int from, int to)
+    {
+        int state = 0;
+        int output = 0;
+        for (int i = from; i < to && state != stop; i++)
+        {
+            char c = input.charAt(i);
+            if (c >= ALPHABET)
+            break;
+
+            int index = state * ALPHABET + c;
+            output += add[index];
+            state = next[index];
+        }
+        return output + endAdd[state];
+    }
+
+    // Decodes every value 1..3999 with both the expression tree and the table and
+    // throws if they ever disagree
+    public static void verify(List<Expression> tree)
+    {
+        RomanDfa dfa = compile(tree);
+        RomanEncoder encoder = new RomanEncoder(tree);
+        for (int value = 1; value <= 3999; value++)
+        {
+            String roman = encoder.encode(value);
+            Context context = new Context(roman);
+            for (Expression exp : tree)
+            {
+                exp.interpret(context);
+            }
+            int compiled = dfa.decode(roman);
+            if (compiled != context.getOutput() || compiled != value)
+            throw new IllegalStateException(roman + ": tree gave " + context.getOutput() + ", table gave " + compiled);
+        }
+    }
+
+    // {next state, value to add} for one character, following Expression.interpret.
+    // A character an expression can't use is handed on to the next expression's start state.
+    private int[] step(int state, char c)
+    {
+        if (state == stop)
+        return new int[] {stop, 0};
+
+        int i = state / 3;
+        int multiplier = multipliers[i];
+        switch (state % 3)
+        {
+            case START:
+                if (startsWith(nines[i], c) || startsWith(fours[i], c))
+                return new int[] {3 * i + PENDING, 0};
+                if (startsWith(fives[i], c))
+                return new int[] {3 * i + ONES, 5 * multiplier};
+                if (startsWith(ones[i], c))
+                return new int[] {3 * i + ONES, multiplier};
+                return step(3 * (i + 1) + START, c);
+
+            case ONES:
+                if (startsWith(ones[i], c))
+                return new int[] {3 * i + ONES, multiplier};
+                return step(3 * (i + 1) + START, c);
+
+            default:
+                if (nines[i] != null && nines[i].charAt(1) == c)
+                return new int[] {3 * i + ONES, 9 * multiplier};
+                if (fours[i] != null && fours[i].charAt(1) == c)
+                return new int[] {3 * i + ONES, 4 * multiplier};
+
+                // The pending character was just a one() on its own
+                int[] afterOne = step(3 * i + ONES, c);
+                return new int[] {afterOne[0], multiplier + afterOne[1]};
+        }
+    }
+
+    private static boolean startsWith(String symbol, char c)
+    {
+        return symbol != null && symbol.charAt(0) == c;
+    }
+
+    static String symbol(String symbol)
+    {
+        return symbol == null || symbol.trim().isEmpty() ? null : symbol;
+    }
+
+    // The table only knows how to represent the usual Roman shapes
+    private void check(Expression exp, int i)
+    {
+        boolean ok = ones[i] != null && ones[i].length() == 1
+            && (fives[i] == null || fives[i].length() == 1)
+            && (nines[i] == null || (nines[i].length() == 2 && nines[i].charAt(0) == ones[i].charAt(0)))
+            && (fours[i] == null || (fours[i].length() == 2 && fours[i].charAt(0) == ones[i].charAt(0)));
+        for (String symbol : new String[] {ones[i], fours[i], fives[i], nines[i]})
+        {
+            if (symbol != null && symbol.chars().anyMatch(c -> c >= ALPHABET))
+            ok = false;
+        }
+        if (!ok)
+        throw new IllegalArgumentException("Can't compile " + exp.getClass().getSimpleName());
+    }
+}
+
+// The other direction: int -> Roman, built from the same expression symbols.
+// All 3999 encodings are worked out once and kept back to back in one shared byte table
+// (about 30 KB), so encoding is just copying bytes out of it. The append/put methods
+// don't allocate anything.
+public class RomanEncoder {
+
+    private static final RomanEncoder STANDARD = new RomanEncoder(List.of(new ThousandExpression(),
+        new HundredExpression(), new TenExpression(), new OneExpression()));
+
+    private final byte[] table;
+    // Encoding of value v is table[offsets[v - 1]] up to table[offsets[v]]
+    private final int[] offsets = new int[4000];
+
+    // The tree goes from the biggest multiplier to the smallest, as in MainInterpreter
+    public RomanEncoder(List<Expression> tree)
+    {
+        StringBuilder all = new StringBuilder();
+        for (int value = 1; value <= 3999; value++)
+        {
+            int rest = value;
+            for (Expression exp : tree)
+            {
+                int digit = rest / exp.multiplier();
+                rest %= exp.multiplier();
+                append(all, exp, digit);
+            }
+            offsets[value] = all.length();
+        }
+        table = all.toString().getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    }
+
+    public static RomanEncoder standard()
+    {
+        return STANDARD;
+    }
+
+    public int length(int value)
+    {
+        check(value);
+        return offsets[value] - offsets[value - 1];
+    }
+
+    public String encode(int value)
+    {
+        check(value);
+        return new String(table, offsets[value - 1], length(value), java.nio.charset.StandardCharsets.US_ASCII);
+    }
+
+    public void encode(int value, StringBuilder out)
+    {
+        check(value);
+        for (int i = offsets[value - 1]; i < offsets[value]; i++)
+        {
+            out.append((char) table[i]);
+        }
+    }
+
+    public void encode(int value, ByteBuffer out)
+    {
+        check(value);
+        out.put(table, offsets[value - 1], length(value));
+    }
+
+    public void encodeAll(int[] values, StringBuilder out, char separator)
+    {
+        for (int value : values)
+        {
+            encode(value, out);
+            out.append(separator);
+        }
+    }
+
+    public void encodeAll(int[] values, ByteBuffer out, byte separator)
+    {
+        for (int value : values)
+        {
+            encode(value, out);
+            out.put(separator);
+        }
+    }
+
+    private static void append(StringBuilder out, Expression exp, int digit)
+    {
+        String nine = RomanDfa.symbol(exp.nine());
+        String four = RomanDfa.symbol(exp.four());
+        String five = RomanDfa.symbol(exp.five());
+
+        if (digit == 9 && nine != null)
+        {
+            out.append(nine);
+            return;
+        }
+        if (digit == 4 && four != null)
+        {
+            out.append(four);
+            return;
+        }
+        if (digit >= 5 && five != null)
+        {
+            out.append(five);
+            digit -= 5;
+        }
+        for (int i = 0; i < digit; i++)
+        {
+            out.append(exp.one());
+        }
+    }
+
+    private static void check(int value)
+    {
+        if (value < 1 || value > 3999)
+        throw new IllegalArgumentException("Roman numerals only go from 1 to 3999: " + value);
+    }
+}
+
+// Rough timing of the three ways to decode all numerals 1..3999.
+// Run with: java InterpreterBenchmark (use a JMH harness for numbers you want to rely on)
+public class InterpreterBenchmark {
+
+    public static void main(String[] args)
+    {
+        List<Expression> tree = List.of(new ThousandExpression(), new HundredExpression(),
+            new TenExpression(), new OneExpression());
+        RomanDfa.verify(tree);
+        RomanDfa dfa = RomanDfa.compile(tree);
+
+        String[] numerals = new String[3999];
+        for (int value = 1; value <= 3999; value++)
+        {
+            numerals[value - 1] = RomanEncoder.standard().encode(value);
+        }
+
+        int rounds = 200;
+        for (int warmup = 0; warmup < 2; warmup++)
+        {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++)
+            {
+                for (String roman : numerals)
+                {
+                    Context context = new Context(roman);
+                    for (Expression exp : tree)
+                    {
+                        exp.interpret(context);
+                    }
+                    sum += context.getOutput();
+                }
+            }
+            long strings = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++)
+            {
+                for (String roman : numerals)
+                {
+                    CursorContext context = new CursorContext(roman);
+                    for (Expression exp : tree)
+                    {
+                        exp.interpret(context);
+                    }
+                    sum += context.getOutput();
+                }
+            }
+            long cursor = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++)
+            {
+                for (String roman : numerals)
+                {
+                    sum += dfa.decode(roman);
+                }
+            }
+            long table = System.nanoTime() - start;
+
+            long count = (long) rounds * numerals.length;
+            System.out.println("substring " + strings / count + " ns, cursor " + cursor / count
+                + " ns, table " + table / count + " ns per numeral (checksum " + sum + ")");
+        }
+    }
+}
+
 public class MainInterpreter {
 
     /**
@@ -129,5 +775,19 @@ public class MainInterpreter {
             }
 
             System.out.println(roman + " = " + Integer.toString(context.getOutput()));
+
+            // Same tree, but without creating a substring per symbol
+            CursorContext cursorContext = new CursorContext(roman);
+            for (Object exp : tree)
+            {
+                ((Expression)exp).interpret(cursorContext);
+            }
+
+            System.out.println(roman + " = " + Integer.toString(cursorContext.getOutput()));
+
+            // And back again, from the precomputed table
+            StringBuilder encoded = new StringBuilder();
+            RomanEncoder.standard().encode(cursorContext.getOutput(), encoded);
+            System.out.println(cursorContext.getOutput() + " = " + encoded);
     }
 }
\ No newline at end of file
@@ -10,7 +10,13 @@
  */
 
 
+ import java.io.*;
+ import java.nio.*;
+ import java.nio.channels.*;
+ import java.nio.file.*;
  import java.util.*;
+ import java.util.concurrent.atomic.*;
+ import java.util.stream.*;
 
 // Product class representing individual products
 class Product {
@@ -71,18 +77,937 @@ class ProductIterator implements Iterator {
 // Aggregate class that stores products and provides an iterator
 class Inventory {
     private List<Product> products = new ArrayList<>();
+    private PriceIndex priceIndex;
 
     public void addProduct(Product product) {
         products.add(product);
+        indexPrice(products.size() - 1, product.getPrice());
+    }
+
+    // Starts keeping products sorted by price as well, for the price queries below.
+    // Products already in the inventory are indexed right away, with a single sort.
+    public void enablePriceIndex() {
+        if (priceIndex == null) {
+            int size = size();
+            double[] prices = new double[size];
+            int[] positions = new int[size];
+            for (int i = 0; i < size; i++) {
+                prices[i] = productAt(i).getPrice();
+                positions[i] = i;
+            }
+            priceIndex = new PriceIndex();
+            priceIndex.addAll(prices, positions, size);
+        }
+    }
+
+    // Products with min <= price <= max, cheapest first
+    public Iterator rangeIterator(double min, double max) {
+        return new PriceRangeIterator(this, requirePriceIndex(), min, max);
+    }
+
+    public List<Product> cheapest(int k) {
+        List<Product> result = new ArrayList<>();
+        Iterator iterator = rangeIterator(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        for (Product p = iterator.first(); p != null && result.size() < k; p = iterator.next()) {
+            result.add(p);
+        }
+        return result;
+    }
+
+    public int count(double min, double max) {
+        return requirePriceIndex().count(min, max);
+    }
+
+    // Subclasses call this for every product they add
+    protected void indexPrice(int index, double price) {
+        if (priceIndex != null) {
+            priceIndex.add(price, index);
+        }
+    }
+
+    // The index the price queries run on; subclasses that keep their own index override this
+    protected PriceIndex requirePriceIndex() {
+        if (priceIndex == null) {
+            throw new IllegalStateException("Price index is not enabled, call enablePriceIndex() first");
+        }
+        return priceIndex;
     }
 
     public Iterator createIterator() {
         return new ProductIterator(products);
     }
+
+    public int size() {
+        return products.size();
+    }
+
+    // Product at the given position, as an object the caller may keep
+    protected Product productAt(int index) {
+        return products.get(index);
+    }
+
+    // Unlike Iterator, a Spliterator can be split in halves, which lets streams
+    // spread work over the catalog across cores
+    public Spliterator<Product> spliterator() {
+        return new InventorySpliterator(this, 0, size());
+    }
+
+    public Stream<Product> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    public Stream<Product> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    // Just the prices, for sums/averages/filters that don't need the product itself
+    public DoubleStream prices() {
+        return stream().mapToDouble(Product::getPrice);
+    }
 }
 
-public class AmazonInventory {
+// Walks a range of positions of an Inventory and splits it in half on demand
+class InventorySpliterator implements Spliterator<Product> {
+    private final Inventory inventory;
+    private int current;
+    private final int end;
+
+    public InventorySpliterator(Inventory inventory, int from, int to) {
+        this.inventory = inventory;
+        this.current = from;
+        this.end = to;
+    }
+
+    @Override
+    public boolean tryAdvance(java.util.function.Consumer<? super Product> action) {
+        if (current < end) {
+            action.accept(inventory.productAt(current++));
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(java.util.function.Consumer<? super Product> action) {
+        for (; current < end; current++) {
+            action.accept(inventory.productAt(current));
+        }
+    }
+
+    @Override
+    public Spliterator<Product> trySplit() {
+        int mid = (current + end) >>> 1;
+        if (mid <= current) {
+            return null;
+        }
+        Spliterator<Product> firstHalf = new InventorySpliterator(inventory, current, mid);
+        current = mid;
+        return firstHalf;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - current;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL;
+    }
+}
+
+// Secondary index of an Inventory by price: positions of products, sorted by price, in plain
+// primitive arrays. It is a set of sorted runs, like a log-structured merge tree: new entries
+// go into a small sorted buffer, a full buffer becomes a run of its own, and whenever a run is
+// at least as big as the one before it the two are merged. So there are only O(log n) runs,
+// every entry gets merged O(log n) times over its life (amortized O(log n) per add), and a
+// lookup is a binary search per run. Products that are already there are added in one go with
+// addAll(), which sorts them once instead of inserting them one by one.
+class PriceIndex {
+    private static final int BUFFER_SIZE = 64;
+
+    // Oldest (and biggest) first; runs never change once made, merging builds new arrays
+    private final List<double[]> runPrices = new ArrayList<>();
+    private final List<int[]> runPositions = new ArrayList<>();
+
+    private double[] bufferPrices = new double[BUFFER_SIZE];
+    private int[] bufferPositions = new int[BUFFER_SIZE];
+    private int buffered;
+
+    public void add(double price, int position) {
+        int at = upperBound(bufferPrices, 0, buffered, price);
+        System.arraycopy(bufferPrices, at, bufferPrices, at + 1, buffered - at);
+        System.arraycopy(bufferPositions, at, bufferPositions, at + 1, buffered - at);
+        bufferPrices[at] = price;
+        bufferPositions[at] = position;
+        if (++buffered == BUFFER_SIZE) {
+            pushRun(bufferPrices.clone(), bufferPositions.clone());
+            buffered = 0;
+        }
+    }
+
+    // Adds the first `count` entries of the arrays, sorted once as a batch
+    public void addAll(double[] prices, int[] positions, int count) {
+        if (count == 0) {
+            return;
+        }
+        double[] sortedPrices = Arrays.copyOf(prices, count);
+        int[] sortedPositions = Arrays.copyOf(positions, count);
+        sort(sortedPrices, sortedPositions);
+        pushRun(sortedPrices, sortedPositions);
+    }
+
+    // Independent copy that can be added to without affecting this one.
+    // Runs are never written to, so they are shared; only the buffer is copied.
+    PriceIndex copy() {
+        PriceIndex copy = new PriceIndex();
+        copy.runPrices.addAll(runPrices);
+        copy.runPositions.addAll(runPositions);
+        copy.bufferPrices = bufferPrices.clone();
+        copy.bufferPositions = bufferPositions.clone();
+        copy.buffered = buffered;
+        return copy;
+    }
+
+    public int count(double min, double max) {
+        if (min > max) {
+            return 0;
+        }
+        int total = 0;
+        for (int run = 0; run < runs(); run++) {
+            total += upperBound(run, max) - lowerBound(run, min);
+        }
+        return total;
+    }
+
+    // The runs, with the buffer counted as the last one
+    int runs() {
+        return runPrices.size() + 1;
+    }
+
+    double price(int run, int i) {
+        return run < runPrices.size() ? runPrices.get(run)[i] : bufferPrices[i];
+    }
+
+    int position(int run, int i) {
+        return run < runPositions.size() ? runPositions.get(run)[i] : bufferPositions[i];
+    }
+
+    // First index in the run with price >= key
+    int lowerBound(int run, double key) {
+        return run < runPrices.size()
+            ? lowerBound(runPrices.get(run), 0, runPrices.get(run).length, key)
+            : lowerBound(bufferPrices, 0, buffered, key);
+    }
+
+    // First index in the run with price > key
+    int upperBound(int run, double key) {
+        return run < runPrices.size()
+            ? upperBound(runPrices.get(run), 0, runPrices.get(run).length, key)
+            : upperBound(bufferPrices, 0, buffered, key);
+    }
+
+    private void pushRun(double[] prices, int[] positions) {
+        runPrices.add(prices);
+        runPositions.add(positions);
+        for (int last = runPrices.size() - 1;
+             last > 0 && runPrices.get(last - 1).length <= runPrices.get(last).length; last--) {
+            double[] olderPrices = runPrices.get(last - 1), newerPrices = runPrices.remove(last);
+            int[] olderPositions = runPositions.get(last - 1), newerPositions = runPositions.remove(last);
+            double[] mergedPrices = new double[olderPrices.length + newerPrices.length];
+            int[] mergedPositions = new int[mergedPrices.length];
+            merge(olderPrices, olderPositions, 0, olderPrices.length,
+                newerPrices, newerPositions, 0, newerPrices.length, mergedPrices, mergedPositions, 0);
+            runPrices.set(last - 1, mergedPrices);
+            runPositions.set(last - 1, mergedPositions);
+        }
+    }
+
+    // Stable bottom-up merge sort of the prices, moving the positions along with them
+    private static void sort(double[] prices, int[] positions) {
+        int n = prices.length;
+        for (int from = 0; from < n; from += 32) {
+            int to = Math.min(n, from + 32);
+            for (int i = from + 1; i < to; i++) {
+                double price = prices[i];
+                int position = positions[i];
+                int j = i - 1;
+                for (; j >= from && prices[j] > price; j--) {
+                    prices[j + 1] = prices[j];
+                    positions[j + 1] = positions[j];
+                }
+                prices[j + 1] = price;
+                positions[j + 1] = position;
+            }
+        }
+        double[] srcPrices = prices, dstPrices = new double[n];
+        int[] srcPositions = positions, dstPositions = new int[n];
+        for (int width = 32; width < n; width *= 2) {
+            for (int lo = 0; lo < n; lo += 2 * width) {
+                int mid = Math.min(n, lo + width), hi = Math.min(n, lo + 2 * width);
+                merge(srcPrices, srcPositions, lo, mid, srcPrices, srcPositions, mid, hi, dstPrices, dstPositions, lo);
+            }
+            double[] p = srcPrices; srcPrices = dstPrices; dstPrices = p;
+            int[] q = srcPositions; srcPositions = dstPositions; dstPositions = q;
+        }
+        if (srcPrices != prices) {
+            System.arraycopy(srcPrices, 0, prices, 0, n);
+            System.arraycopy(srcPositions, 0, positions, 0, n);
+        }
+    }
+
+    // Merges a[aFrom, aTo) and b[bFrom, bTo) into out from `at`; on equal prices a comes first
+    private static void merge(double[] aPrices, int[] aPositions, int aFrom, int aTo,
+                              double[] bPrices, int[] bPositions, int bFrom, int bTo,
+                              double[] outPrices, int[] outPositions, int at) {
+        int i = aFrom, j = bFrom;
+        while (i < aTo && j < bTo) {
+            if (aPrices[i] <= bPrices[j]) {
+                outPrices[at] = aPrices[i];
+                outPositions[at++] = aPositions[i++];
+            } else {
+                outPrices[at] = bPrices[j];
+                outPositions[at++] = bPositions[j++];
+            }
+        }
+        System.arraycopy(aPrices, i, outPrices, at, aTo - i);
+        System.arraycopy(aPositions, i, outPositions, at, aTo - i);
+        at += aTo - i;
+        System.arraycopy(bPrices, j, outPrices, at, bTo - j);
+        System.arraycopy(bPositions, j, outPositions, at, bTo - j);
+    }
+
+    private static int lowerBound(double[] values, int from, int to, double key) {
+        int lo = from, hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int upperBound(double[] values, int from, int to, double key) {
+        int lo = from, hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] <= key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+}
+
+// Walks the products of a price range in price order, merging the index's runs as it goes.
+// Only meant to be used while the inventory isn't being added to.
+class PriceRangeIterator implements Iterator {
+    private final Inventory inventory;
+    private final PriceIndex index;
+    private final int[] from;
+    private final int[] to;
+    private final int[] cursor;
+    private int remaining;
+
+    public PriceRangeIterator(Inventory inventory, PriceIndex index, double min, double max) {
+        this.inventory = inventory;
+        this.index = index;
+        int runs = index.runs();
+        from = new int[runs];
+        to = new int[runs];
+        cursor = new int[runs];
+        for (int run = 0; run < runs; run++) {
+            from[run] = index.lowerBound(run, min);
+            to[run] = Math.max(from[run], index.upperBound(run, max));
+        }
+    }
+
+    public Product first() {
+        remaining = 0;
+        for (int run = 0; run < cursor.length; run++) {
+            cursor[run] = from[run];
+            remaining += to[run] - from[run];
+        }
+        return take();
+    }
+
+    public Product next() {
+        return take();
+    }
+
+    public boolean hasNext() {
+        return remaining > 0;
+    }
+
+    // Cheapest head of all the runs; there are only O(log n) of them, so a scan is enough
+    private Product take() {
+        if (remaining == 0) {
+            return null;
+        }
+        remaining--;
+        int best = -1;
+        for (int run = 0; run < cursor.length; run++) {
+            if (cursor[run] < to[run]
+                && (best < 0 || index.price(run, cursor[run]) < index.price(best, cursor[best]))) {
+                best = run;
+            }
+        }
+        return inventory.productAt(index.position(best, cursor[best]++));
+    }
+}
+
+// Inventories that store names and prices in columns rather than as Product objects.
+// ColumnarProduct and ColumnarIterator work on top of this.
+interface ProductColumns {
+    int size();
+    String nameAt(int index);
+    double priceAt(int index);
+}
+
+// Column-oriented Inventory for very large catalogs.
+// Instead of one Product object per item, prices live in a double[] and names are
+// dictionary-encoded: each distinct name is stored once as UTF-8 bytes in a shared arena,
+// and every product only keeps an int id pointing at it.
+class ColumnarInventory extends Inventory implements ProductColumns {
+    private double[] prices = new double[16];
+    private int[] nameIds = new int[16];
+    private int size;
+
+    private byte[] nameArena = new byte[256];
+    // Name with id i is nameArena[nameOffsets[i]] up to nameArena[nameOffsets[i + 1]]
+    private int[] nameOffsets = new int[17];
+    private int nameCount;
+    // Open-addressing hash table from name bytes to name id: each slot holds id + 1 (0 = empty)
+    // and lookups compare against the bytes in the arena, so names are never kept as Strings
+    private int[] dictionary = new int[32];
+
+    @Override
+    public void addProduct(Product product) {
+        addProduct(product.getName(), product.getPrice());
+    }
+
+    // Same as addProduct(Product), without creating the Product first
+    public void addProduct(String name, double price) {
+        if (size == prices.length) {
+            prices = Arrays.copyOf(prices, size * 2);
+            nameIds = Arrays.copyOf(nameIds, size * 2);
+        }
+        prices[size] = price;
+        nameIds[size] = nameId(name);
+        size++;
+        indexPrice(size - 1, price);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    // A view of its own, so streams can keep it (unlike the iterator's moving cursor)
+    @Override
+    protected Product productAt(int index) {
+        return new ColumnarProduct(this, index);
+    }
+
+    // Streams straight over the price column, no Product views at all
+    @Override
+    public DoubleStream prices() {
+        return Arrays.stream(prices, 0, size);
+    }
+
+    @Override
+    public double priceAt(int index) {
+        return prices[index];
+    }
+
+    @Override
+    public String nameAt(int index) {
+        int id = nameIds[index];
+        int start = nameOffsets[id];
+        return new String(nameArena, start, nameOffsets[id + 1] - start, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Iterator createIterator() {
+        return new ColumnarIterator(this);
+    }
+
+    private int nameId(String name) {
+        byte[] bytes = name.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        int hash = hash(bytes, 0, bytes.length);
+        int mask = dictionary.length - 1;
+        int slot = hash & mask;
+        for (int entry; (entry = dictionary[slot]) != 0; slot = (slot + 1) & mask) {
+            int start = nameOffsets[entry - 1];
+            if (Arrays.equals(nameArena, start, nameOffsets[entry], bytes, 0, bytes.length)) {
+                return entry - 1;
+            }
+        }
+
+        int newId = nameCount++;
+        int start = nameOffsets[newId];
+        if (start + bytes.length > nameArena.length) {
+            nameArena = Arrays.copyOf(nameArena, Math.max(nameArena.length * 2, start + bytes.length));
+        }
+        System.arraycopy(bytes, 0, nameArena, start, bytes.length);
+        if (newId + 1 == nameOffsets.length) {
+            nameOffsets = Arrays.copyOf(nameOffsets, nameOffsets.length * 2);
+        }
+        nameOffsets[newId + 1] = start + bytes.length;
+        dictionary[slot] = newId + 1;
+        // Keep the table at most half full
+        if (nameCount * 2 > dictionary.length) {
+            rehash();
+        }
+        return newId;
+    }
+
+    private void rehash() {
+        int[] table = new int[dictionary.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < nameCount; id++) {
+            int slot = hash(nameArena, nameOffsets[id], nameOffsets[id + 1]) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+        dictionary = table;
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 1;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + bytes[i];
+        }
+        // Spread the high bits, since the table only looks at the low ones
+        return h ^ (h >>> 16);
+    }
+}
+
+// Flyweight Product that just points at one row of a columnar inventory.
+// The iterator moves the same view from row to row, so a scan creates no objects;
+// copy out what you need if you want to keep a product around.
+class ColumnarProduct extends Product {
+    private final ProductColumns inventory;
+    private int index;
+
+    public ColumnarProduct(ProductColumns inventory, int index) {
+        super(null, 0);
+        this.inventory = inventory;
+        this.index = index;
+    }
+
+    void moveTo(int index) {
+        this.index = index;
+    }
+
+    @Override
+    public String getName() {
+        return inventory.nameAt(index);
+    }
+
+    @Override
+    public double getPrice() {
+        return inventory.priceAt(index);
+    }
+}
+
+// Same traversal as ProductIterator, over the columns
+class ColumnarIterator implements Iterator {
+    private final ProductColumns inventory;
+    private final ColumnarProduct cursor;
+    private int current;
+
+    public ColumnarIterator(ProductColumns inventory) {
+        this.inventory = inventory;
+        this.cursor = new ColumnarProduct(inventory, 0);
+        this.current = 0;
+    }
+
+    public Product first() {
+        if (inventory.size() == 0) {
+            return null;
+        }
+        current = 0;
+        cursor.moveTo(current);
+        return cursor;
+    }
+
+    public Product next() {
+        if (hasNext()) {
+            cursor.moveTo(++current);
+            return cursor;
+        }
+        return null;
+    }
+
+    public boolean hasNext() {
+        return current < inventory.size() - 1;
+    }
+}
+
+// Inventory that many threads can add to while others iterate, without a global lock.
+// Products go into fixed-size chunks that never move once created. A writer claims the slot
+// at the current size with a CAS and then moves the published size past it; if it finds the
+// slot already taken, it helps move the size along and tries the next one. Readers only look
+// at slots below the published size, so they never see an empty or half-written entry.
+// createIterator() just remembers the published size at that moment: the iterator sees exactly
+// the products that existed then, no matter what gets added later, and nothing is copied.
+// The price queries work the same way. The index covers a snapshot of the first n products and
+// is never changed once published. A query that finds newer products copies it, sorts the new
+// ones in one batch, adds them as a run and publishes the result, so writers never touch the
+// index at all.
+class ConcurrentInventory extends Inventory {
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << 16; // room for about a billion products
+
+    private final AtomicReferenceArray<AtomicReferenceArray<Product>> chunks =
+        new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicInteger published = new AtomicInteger();
+    // null until enablePriceIndex()
+    private final AtomicReference<IndexedPrefix> priceIndex = new AtomicReference<>();
+    private final AtomicBoolean catchingUp = new AtomicBoolean();
+
+    @Override
+    public void addProduct(Product product) {
+        Objects.requireNonNull(product, "product"); // an empty slot means "not written yet"
+        while (true) {
+            int slot = published.get();
+            if (slot == MAX_CHUNKS * CHUNK_SIZE) {
+                throw new IllegalStateException("Inventory is full");
+            }
+            boolean claimed = chunk(slot >>> CHUNK_BITS).compareAndSet(slot & (CHUNK_SIZE - 1), null, product);
+            // Whoever filled the slot, it is complete now, so the size can move past it
+            published.compareAndSet(slot, slot + 1);
+            if (claimed) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return published.get();
+    }
+
+    @Override
+    protected Product productAt(int index) {
+        return chunks.get(index >>> CHUNK_BITS).get(index & (CHUNK_SIZE - 1));
+    }
+
+    @Override
+    public Iterator createIterator() {
+        return new ProductIterator(new Snapshot(size()));
+    }
+
+    @Override
+    public void enablePriceIndex() {
+        if (priceIndex.get() == null) {
+            priceIndex.compareAndSet(null, new IndexedPrefix(0, new PriceIndex()).extendTo(this, size()));
+        }
+    }
+
+    // Brings the index up to the current size first, so a query sees every product added before
+    // it. Only one reader at a time does that catching up; readers that come along meanwhile
+    // don't repeat the work and use the last published index, without the very newest products.
+    @Override
+    protected PriceIndex requirePriceIndex() {
+        IndexedPrefix current = priceIndex.get();
+        if (current == null) {
+            throw new IllegalStateException("Price index is not enabled, call enablePriceIndex() first");
+        }
+        int size = size();
+        if (current.size >= size || !catchingUp.compareAndSet(false, true)) {
+            return current.index;
+        }
+        try {
+            // Only this thread publishes, so a plain set is enough
+            current = priceIndex.get().extendTo(this, size);
+            priceIndex.set(current);
+            return current.index;
+        } finally {
+            catchingUp.set(false);
+        }
+    }
+
+    private AtomicReferenceArray<Product> chunk(int index) {
+        AtomicReferenceArray<Product> chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = chunks.get(index);
+        }
+        return chunk;
+    }
+
+    // Price index of the first `size` products
+    private static class IndexedPrefix {
+        final int size;
+        final PriceIndex index;
+
+        IndexedPrefix(int size, PriceIndex index) {
+            this.size = size;
+            this.index = index;
+        }
+
+        // New prefix that also covers the products up to `newSize`, sorted in one batch
+        IndexedPrefix extendTo(ConcurrentInventory inventory, int newSize) {
+            if (newSize <= size) {
+                return this;
+            }
+            double[] prices = new double[newSize - size];
+            int[] positions = new int[prices.length];
+            for (int i = size; i < newSize; i++) {
+                prices[i - size] = inventory.productAt(i).getPrice();
+                positions[i - size] = i;
+            }
+            PriceIndex extended = index.copy();
+            extended.addAll(prices, positions, prices.length);
+            return new IndexedPrefix(newSize, extended);
+        }
+    }
+
+    // Read-only view of the first `size` products
+    private class Snapshot extends AbstractList<Product> {
+        private final int size;
+
+        Snapshot(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Product get(int index) {
+            Objects.checkIndex(index, size);
+            return productAt(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
+
+// Inventory that lives in files instead of on the heap, so it can be bigger than -Xmx and
+// is there again right away after a restart (nothing is rebuilt through addProduct).
+// products.dat holds a small header (product count, bytes of names used) and then one
+// fixed-size record per product: where its name starts in names.dat, the name's length and
+// the price. Both files are append-only and memory-mapped in segments; reads go straight
+// to the mapping. The header is written last, so a crash mid-append just loses that product.
+// Segments holding existing products are all mapped when the inventory is opened, and only
+// addProduct() maps new ones, so readers (e.g. parallelStream() workers) never change the
+// segment lists. Like Inventory, it is meant for one writer at a time.
+class MappedInventory extends Inventory implements ProductColumns, Closeable {
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 20; // long name offset, int name length, double price
+    private static final int RECORDS_PER_SEGMENT = 1 << 20;
+    private static final int NAME_SEGMENT_BYTES = 1 << 26;
+
+    private final FileChannel records;
+    private final FileChannel names;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> recordSegments = new ArrayList<>();
+    private final List<MappedByteBuffer> nameSegments = new ArrayList<>();
+    private int size;
+    private long namesEnd;
+
+    public MappedInventory(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        records = FileChannel.open(directory.resolve("products.dat"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        names = FileChannel.open(directory.resolve("names.dat"),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header = records.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        size = (int) header.getLong(0);
+        namesEnd = header.getLong(8);
+        if (size > 0) {
+            mapRecordSegment(size - 1);
+        }
+        if (namesEnd > 0) {
+            mapNameSegment(namesEnd - 1);
+        }
+    }
+
+    @Override
+    public void addProduct(Product product) {
+        addProduct(product.getName(), product.getPrice());
+    }
+
+    public void addProduct(String name, double price) {
+        byte[] bytes = name.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        if (bytes.length > NAME_SEGMENT_BYTES) {
+            throw new IllegalArgumentException("Product name too long");
+        }
+        // A name never crosses into the next segment
+        long nameOffset = namesEnd;
+        if (nameOffset % NAME_SEGMENT_BYTES + bytes.length > NAME_SEGMENT_BYTES) {
+            nameOffset = (nameOffset / NAME_SEGMENT_BYTES + 1) * NAME_SEGMENT_BYTES;
+        }
+        mapNameSegment(nameOffset).put((int) (nameOffset % NAME_SEGMENT_BYTES), bytes);
+
+        ByteBuffer record = mapRecordSegment(size);
+        int at = recordPosition(size);
+        record.putLong(at, nameOffset);
+        record.putInt(at + 8, bytes.length);
+        record.putDouble(at + 12, price);
+
+        namesEnd = nameOffset + bytes.length;
+        size++;
+        header.putLong(8, namesEnd);
+        header.putLong(0, size);
+        indexPrice(size - 1, price);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double priceAt(int index) {
+        return recordSegment(index).getDouble(recordPosition(index) + 12);
+    }
+
+    @Override
+    public String nameAt(int index) {
+        ByteBuffer record = recordSegment(index);
+        long nameOffset = record.getLong(recordPosition(index));
+        byte[] bytes = new byte[record.getInt(recordPosition(index) + 8)];
+        if (bytes.length == 0) {
+            return ""; // may sit at the start of a segment that was never mapped
+        }
+        nameSegment(nameOffset).get((int) (nameOffset % NAME_SEGMENT_BYTES), bytes);
+        return new String(bytes, java.nio.charset.StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected Product productAt(int index) {
+        return new ColumnarProduct(this, index);
+    }
+
+    @Override
+    public Iterator createIterator() {
+        return new ColumnarIterator(this);
+    }
+
+    // Makes sure everything added so far is on disk
+    public void flush() {
+        for (MappedByteBuffer segment : nameSegments) {
+            segment.force();
+        }
+        for (MappedByteBuffer segment : recordSegments) {
+            segment.force();
+        }
+        header.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        records.close();
+        names.close();
+    }
+
+    private static int recordPosition(int index) {
+        return (index % RECORDS_PER_SEGMENT) * RECORD_BYTES;
+    }
+
+    private MappedByteBuffer recordSegment(int index) {
+        return recordSegments.get(index / RECORDS_PER_SEGMENT);
+    }
+
+    private MappedByteBuffer nameSegment(long offset) {
+        return nameSegments.get((int) (offset / NAME_SEGMENT_BYTES));
+    }
+
+    // Writer side: maps any segments missing up to the one holding this record
+    private MappedByteBuffer mapRecordSegment(int index) {
+        int segment = index / RECORDS_PER_SEGMENT;
+        while (recordSegments.size() <= segment) {
+            long start = HEADER_BYTES + (long) recordSegments.size() * RECORDS_PER_SEGMENT * RECORD_BYTES;
+            recordSegments.add(map(records, start, RECORDS_PER_SEGMENT * RECORD_BYTES));
+        }
+        return recordSegments.get(segment);
+    }
+
+    private MappedByteBuffer mapNameSegment(long offset) {
+        int segment = (int) (offset / NAME_SEGMENT_BYTES);
+        while (nameSegments.size() <= segment) {
+            nameSegments.add(map(names, (long) nameSegments.size() * NAME_SEGMENT_BYTES, NAME_SEGMENT_BYTES));
+        }
+        return nameSegments.get(segment);
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, int length) {
+        try {
+            return channel.map(FileChannel.MapMode.READ_WRITE, position, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
+// Rough timing of price aggregations over the catalog, one core vs all cores.
+// Run with: java AmazonInventoryBenchmark [products]   (default 1M; for 100M give the JVM
+// a few GB of heap, e.g. -Xmx8g, and expect the list-backed run to need most of it)
+class AmazonInventoryBenchmark {
     public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(42);
+        Inventory listed = new Inventory();
+        ColumnarInventory columnar = new ColumnarInventory();
+        for (int i = 0; i < count; i++) {
+            String name = "SKU-" + (i % 100_000);
+            double price = random.nextInt(100_000) / 100.0;
+            listed.addProduct(new Product(name, price));
+            columnar.addProduct(name, price);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            time("list      sum      ", () -> listed.stream().mapToDouble(Product::getPrice).sum());
+            time("list      sum  par ", () -> listed.parallelStream().mapToDouble(Product::getPrice).sum());
+            time("columnar  sum      ", () -> columnar.prices().sum());
+            time("columnar  sum  par ", () -> columnar.prices().parallel().sum());
+            time("list      >500 par ", () -> listed.parallelStream().filter(p -> p.getPrice() > 500).count());
+            time("columnar  >500 par ", () -> columnar.prices().parallel().filter(p -> p > 500).count());
+            time("list      top10 par", () -> mostExpensive(listed.parallelStream(), 10));
+            time("columnar  top10 par", () -> mostExpensive(columnar.parallelStream(), 10));
+        }
+    }
+
+    // Top-k without sorting the catalog: every worker keeps a min-heap of its k most expensive
+    // products so far, and the heaps are merged at the end
+    private static List<String> mostExpensive(Stream<Product> products, int k) {
+        Comparator<Product> byPrice = Comparator.comparingDouble(Product::getPrice);
+        PriorityQueue<Product> top = products.collect(
+            () -> new PriorityQueue<>(byPrice),
+            (heap, p) -> offer(heap, p, k),
+            (heap, other) -> other.forEach(p -> offer(heap, p, k)));
+        List<Product> sorted = new ArrayList<>(top);
+        sorted.sort(byPrice.reversed());
+        List<String> result = new ArrayList<>();
+        for (Product p : sorted) {
+            result.add(p.getName() + " $" + p.getPrice());
+        }
+        return result;
+    }
+
+    private static void offer(PriorityQueue<Product> heap, Product p, int k) {
+        if (heap.size() < k) {
+            heap.offer(p);
+        } else if (p.getPrice() > heap.peek().getPrice()) {
+            heap.poll();
+            heap.offer(p);
+        }
+    }
+
+    private static void time(String label, java.util.function.Supplier<Object> work) {
+        long start = System.nanoTime();
+        Object result = work.get();
+        System.out.println(label + " " + (System.nanoTime() - start) / 1_000_000 + " ms (" + result + ")");
+    }
+}
+
+public class AmazonInventory {
+    public static void main(String[] args) throws IOException {
         // Create some products
         Product product1 = new Product("Laptop", 99999.99);
         Product product2 = new Product("Smartphone", 49999.99);
@@ -102,5 +1027,51 @@ public class AmazonInventory {
             System.out.println("Product: " + currentProduct.getName() + ", Price: $" + currentProduct.getPrice());
             currentProduct = iterator.next();
         }
+
+        // Same products, stored column by column
+        ColumnarInventory columnar = new ColumnarInventory();
+        columnar.addProduct(product1);
+        columnar.addProduct(product2);
+        columnar.addProduct(product3);
+
+        Iterator columns = columnar.createIterator();
+        for (Product p = columns.first(); p != null; p = columns.next()) {
+            System.out.println("Product: " + p.getName() + ", Price: $" + p.getPrice());
+        }
+
+        // Aggregations can be split across cores
+        System.out.println("Total value: $" + columnar.prices().parallel().sum());
+
+        // Price band queries through the sorted price index
+        inventory.enablePriceIndex();
+        System.out.println("Products between $5000 and $60000: " + inventory.count(5000, 60000));
+        System.out.println("Cheapest: " + inventory.cheapest(1).get(0).getName());
+
+        // Writers keep adding while a reader walks a snapshot
+        ConcurrentInventory shared = new ConcurrentInventory();
+        shared.addProduct(product1);
+        Iterator snapshot = shared.createIterator();
+        Thread writer = new Thread(() -> shared.addProduct(product2));
+        writer.start();
+        for (Product p = snapshot.first(); p != null; p = snapshot.next()) {
+            System.out.println("Snapshot product: " + p.getName());
+        }
+        // Price queries see everything added before them
+        shared.enablePriceIndex();
+        shared.addProduct(product3);
+        System.out.println("Cheapest shared: " + shared.cheapest(1).get(0).getName());
+
+        // File-backed inventory: reopening it finds the products already there
+        Path dir = Files.createTempDirectory("inventory");
+        try (MappedInventory stored = new MappedInventory(dir)) {
+            stored.addProduct(product1);
+            stored.addProduct(product3);
+        }
+        try (MappedInventory reopened = new MappedInventory(dir)) {
+            Iterator fromDisk = reopened.createIterator();
+            for (Product p = fromDisk.first(); p != null; p = fromDisk.next()) {
+                System.out.println("Stored product: " + p.getName() + ", Price: $" + p.getPrice());
+            }
+        }
     }
 }
\ No newline at end of file
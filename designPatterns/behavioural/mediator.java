@@ -15,6 +15,15 @@
 
 //  https://www.baeldung.com/java-mediator-pattern (nice explanation in this blog post)
 
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
 // Colleague Interface/abstract class
 public abstract class User
 {
@@ -32,6 +41,18 @@ public abstract class User
     public abstract void send(String msg, String userId);
     public abstract void receive(String msg);
 
+    // Binary versions of send/receive. The message is encoded once by the sender and the
+    // mediator passes the same buffer through. Sending hands over the caller's reference.
+    public void send(MessageBuffer msg, String userId) {
+        getMediator().sendMessage(msg, userId);
+    }
+
+    // The buffer is only valid during this call; retain() it to keep it longer.
+    // By default it is decoded and passed to receive(String); override to read the bytes directly.
+    public void receive(MessageBuffer msg) {
+        receive(msg.toString());
+    }
+
     public IChatRoom getMediator() {
         return mediator;
     }
@@ -71,6 +92,115 @@ public interface IChatRoom
 {
     public void sendMessage(String msg, String userId);
     public void addUser(User user);
+
+    // Takes over the caller's reference to msg. Rooms that don't handle buffers
+    // themselves fall back to delivering it as a String.
+    public default void sendMessage(MessageBuffer msg, String userId) {
+        try {
+            sendMessage(msg.toString(), userId);
+        } finally {
+            msg.release();
+        }
+    }
+}
+
+// A message encoded as UTF-8 in a pooled direct ByteBuffer, shared instead of copied.
+// It is reference counted: every holder calls release() once when done, and the buffer
+// goes back to its pool when the last one does.
+public class MessageBuffer {
+    private final MessageBufferPool pool;
+    private final ByteBuffer buffer;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    MessageBuffer(MessageBufferPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+    }
+
+    // Read-only view of the message bytes; shares memory with the buffer, nothing is copied
+    public ByteBuffer view() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    public int length() {
+        return buffer.remaining();
+    }
+
+    // Never brings a released message back: once the count is 0 the buffer may already be in use
+    // by another message, so the count must stay there
+    public MessageBuffer retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current <= 0) {
+                throw new IllegalStateException("Message already released");
+            }
+        } while (!references.compareAndSet(current, current + 1));
+        return this;
+    }
+
+    public void release() {
+        int left = references.decrementAndGet();
+        if (left == 0) {
+            pool.recycle(buffer);
+        } else if (left < 0) {
+            throw new IllegalStateException("Message released too many times");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return StandardCharsets.UTF_8.decode(view()).toString();
+    }
+}
+
+// Hands out MessageBuffers carved from reusable direct buffers of a fixed size.
+// Messages that don't fit get a direct buffer of their own that isn't pooled.
+public class MessageBufferPool {
+    private final int bufferSize;
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<java.nio.charset.CharsetEncoder> encoders =
+        // Lone surrogates become '?' like String.getBytes does, instead of the encoder stopping there
+        ThreadLocal.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(java.nio.charset.CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(java.nio.charset.CodingErrorAction.REPLACE));
+
+    public MessageBufferPool(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    // Encodes the text straight into a pooled buffer, the only time its bytes get written
+    public MessageBuffer encode(String text) {
+        java.nio.charset.CharsetEncoder encoder = encoders.get();
+        int maxBytes = (int) Math.ceil(text.length() * (double) encoder.maxBytesPerChar());
+        ByteBuffer buffer = maxBytes <= bufferSize ? acquire() : ByteBuffer.allocateDirect(maxBytes);
+        encoder.reset();
+        encoder.encode(CharBuffer.wrap(text), buffer, true);
+        encoder.flush(buffer);
+        buffer.flip();
+        return new MessageBuffer(this, buffer);
+    }
+
+    private ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    void recycle(ByteBuffer buffer) {
+        if (buffer.capacity() == bufferSize) {
+            buffer.clear();
+            free.offer(buffer);
+        }
+    }
+}
+
+// Mediator that can also deliver one message to everyone in a group
+public interface IGroupChatRoom extends IChatRoom
+{
+    public void createGroup(String groupId);
+    public void joinGroup(String groupId, String userId);
+    public void leaveGroup(String groupId, String userId);
+    public void broadcast(String msg, String groupId);
 }
 
 // Concrete Mediator
@@ -84,15 +214,655 @@ public class ChatRoom implements IChatRoom {
         u.receive(msg);
     }
     @Override
+    public void sendMessage(MessageBuffer msg, String userId)
+    {
+        try {
+            User u = usersMap.get(userId);
+            u.receive(msg);
+        } finally {
+            msg.release();
+        }
+    }
+    @Override
     public void addUser(User user) {
         this.usersMap.put(user.getId(), user);
     }
 }
 
+// Concurrent Mediator for rooms with a very large number of users.
+// Users are split across shards by id; each shard has its own ConcurrentHashMap and its own
+// delivery thread. sendMessage() only hands the message to the recipient's shard, so the
+// sender never waits for a slow receiver, and shards never contend with each other.
+// For groups, every user also gets a small int slot within its shard, and a group is one
+// bitmap of slots per shard. A broadcast copies those bitmaps and hands each shard a single
+// task that walks its bitmap and reads users straight out of an array: no per-recipient
+// lookups or tasks.
+public class ShardedChatRoom implements IGroupChatRoom {
+    private final Shard[] shards;
+    private final Map<String, BitSet[]> groups = new ConcurrentHashMap<>();
+
+    public ShardedChatRoom(int shardCount) {
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    @Override
+    public void sendMessage(String msg, String userId) {
+        Shard shard = shardFor(userId);
+        shard.executor.execute(() -> {
+            User u = shard.users.get(userId);
+            // Nobody to deliver to if the user never joined
+            if (u != null) {
+                u.receive(msg);
+            }
+        });
+    }
+
+    @Override
+    public void sendMessage(MessageBuffer msg, String userId) {
+        Shard shard = shardFor(userId);
+        try {
+            shard.executor.execute(() -> {
+                try {
+                    User u = shard.users.get(userId);
+                    if (u != null) {
+                        u.receive(msg);
+                    }
+                } finally {
+                    msg.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            msg.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void addUser(User user) {
+        Shard shard = shardFor(user.getId());
+        synchronized (shard) {
+            Integer slot = shard.slotOf.get(user.getId());
+            if (slot == null) {
+                slot = shard.slotCount++;
+                if (slot == shard.slots.length) {
+                    shard.slots = Arrays.copyOf(shard.slots, slot * 2);
+                }
+                shard.slotOf.put(user.getId(), slot);
+            }
+            shard.slots[slot] = user;
+            shard.users.put(user.getId(), user);
+        }
+    }
+
+    @Override
+    public void createGroup(String groupId) {
+        BitSet[] members = new BitSet[shards.length];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = new BitSet();
+        }
+        groups.putIfAbsent(groupId, members);
+    }
+
+    @Override
+    public void joinGroup(String groupId, String userId) {
+        updateGroup(groupId, userId, true);
+    }
+
+    @Override
+    public void leaveGroup(String groupId, String userId) {
+        updateGroup(groupId, userId, false);
+    }
+
+    @Override
+    public void broadcast(String msg, String groupId) {
+        BitSet[] members = group(groupId);
+        for (int i = 0; i < shards.length; i++) {
+            BitSet recipients;
+            synchronized (members) {
+                recipients = (BitSet) members[i].clone();
+            }
+            if (recipients.isEmpty()) {
+                continue;
+            }
+            Shard shard = shards[i];
+            shard.executor.execute(() -> {
+                User[] slots;
+                synchronized (shard) {
+                    slots = shard.slots;
+                }
+                for (int slot = recipients.nextSetBit(0); slot >= 0; slot = recipients.nextSetBit(slot + 1)) {
+                    try {
+                        slots[slot].receive(msg);
+                    } catch (RuntimeException e) {
+                        // One bad receiver mustn't cost the rest of the group the message.
+                        // Report it the way a failed sendMessage() task would be, and carry on.
+                        Thread t = Thread.currentThread();
+                        t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                    }
+                }
+            });
+        }
+    }
+
+    private void updateGroup(String groupId, String userId, boolean join) {
+        BitSet[] members = group(groupId);
+        Shard shard = shardFor(userId);
+        int slot;
+        synchronized (shard) {
+            Integer s = shard.slotOf.get(userId);
+            if (s == null) {
+                throw new IllegalArgumentException("Unknown user: " + userId);
+            }
+            slot = s;
+        }
+        synchronized (members) {
+            members[shard.index].set(slot, join);
+        }
+    }
+
+    private BitSet[] group(String groupId) {
+        BitSet[] members = groups.get(groupId);
+        if (members == null) {
+            throw new IllegalArgumentException("Unknown group: " + groupId);
+        }
+        return members;
+    }
+
+    // Delivers what's already queued, then stops the shard threads
+    public void shutdown() throws InterruptedException {
+        for (Shard shard : shards) {
+            shard.executor.shutdown();
+        }
+        for (Shard shard : shards) {
+            shard.executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private Shard shardFor(String userId) {
+        int h = userId.hashCode();
+        return shards[Math.floorMod(h ^ (h >>> 16), shards.length)];
+    }
+
+    private static class Shard {
+        private final int index;
+        private final Map<String, User> users = new ConcurrentHashMap<>();
+        private final ExecutorService executor;
+        // Guarded by the shard itself
+        private final Map<String, Integer> slotOf = new HashMap<>();
+        private User[] slots = new User[16];
+        private int slotCount;
+
+        Shard(int index) {
+            this.index = index;
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "chat-shard-" + index);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
+
+// What a MailboxChatRoom does when a user's mailbox is full
+public enum OverflowPolicy {
+    DROP_OLDEST, // make room by throwing away the oldest unread message
+    BLOCK,       // the sender waits until there is room
+    REJECT       // the sender gets a RejectedExecutionException
+}
+
+// Concrete Mediator with asynchronous delivery.
+// Every user gets a bounded mailbox. sendMessage() returns as soon as the message is in the
+// recipient's mailbox; the mailbox is drained by a task on the room's executor, one task per
+// mailbox at a time, so each user still receives messages one by one and in order.
+// Idle mailboxes cost no thread at all. On Java 21+ pass Executors.newVirtualThreadPerTaskExecutor()
+// to give each draining mailbox its own virtual thread.
+public class MailboxChatRoom implements IChatRoom {
+    private static final int DRAIN_BATCH = 64;
+
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final ExecutorService executor;
+
+    public MailboxChatRoom(int capacity, OverflowPolicy overflowPolicy, ExecutorService executor) {
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.executor = executor;
+    }
+
+    public MailboxChatRoom(int capacity, OverflowPolicy overflowPolicy) {
+        this(capacity, overflowPolicy, Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "chat-mailbox");
+            t.setDaemon(true);
+            return t;
+        }));
+    }
+
+    @Override
+    public void sendMessage(String msg, String userId) {
+        Mailbox mailbox = mailboxes.get(userId);
+        if (mailbox != null) {
+            mailbox.offer(msg);
+        }
+    }
+
+    @Override
+    public void addUser(User user) {
+        mailboxes.put(user.getId(), new Mailbox(user));
+    }
+
+    // Delivers what's already in the mailboxes, then stops the executor
+    public void shutdown() throws InterruptedException {
+        for (Mailbox mailbox : mailboxes.values()) {
+            mailbox.awaitEmpty();
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private class Mailbox {
+        private final User owner;
+        private final BlockingQueue<String> messages = new ArrayBlockingQueue<>(capacity);
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Mailbox(User owner) {
+            this.owner = owner;
+        }
+
+        void offer(String msg) {
+            switch (overflowPolicy) {
+                case DROP_OLDEST:
+                    while (!messages.offer(msg)) {
+                        messages.poll();
+                    }
+                    break;
+                case BLOCK:
+                    try {
+                        messages.put(msg);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("Interrupted while waiting for " + owner.getName() + "'s mailbox");
+                    }
+                    break;
+                default:
+                    if (!messages.offer(msg)) {
+                        throw new RejectedExecutionException(owner.getName() + "'s mailbox is full");
+                    }
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // Nothing is going to drain it after all; the next offer() can try again
+                    idle();
+                    throw e;
+                }
+            }
+        }
+
+        // Delivers a batch, then gives the thread back so busy mailboxes can't hog it
+        private void drain() {
+            try {
+                String msg;
+                for (int i = 0; i < DRAIN_BATCH && (msg = messages.poll()) != null; i++) {
+                    owner.receive(msg);
+                }
+            } finally {
+                idle();
+                if (!messages.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+
+        // No drain task anymore; wakes up awaitEmpty()
+        private synchronized void idle() {
+            scheduled.set(false);
+            notifyAll();
+        }
+
+        synchronized void awaitEmpty() throws InterruptedException {
+            while (!messages.isEmpty() || scheduled.get()) {
+                if (!scheduled.get()) {
+                    // Messages left behind by a rejected schedule(); throws if still rejected
+                    schedule();
+                }
+                wait();
+            }
+        }
+    }
+}
+
+// Durable, append-only log of every message that went through a room, so users who join late
+// or reconnect can catch up.
+// The log is a series of memory-mapped segment files, named after the offset (message number)
+// of their first message. Each record is [int length][int recipient length][recipient][message],
+// all UTF-8. Appends only copy bytes into the mapping; a background thread forces the mapping
+// to disk every few milliseconds, so one fsync covers every append since the last one
+// (group commit). Every INDEX_INTERVAL-th message goes into a small per-segment index, so a
+// replay can jump close to any offset and read forward from the mapping.
+public class MessageLog implements Closeable {
+    private static final int INDEX_INTERVAL = 1024;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final List<Segment> segments = new ArrayList<>();
+    private final ScheduledExecutorService committer;
+    private long nextOffset;
+    private long durableOffset;
+    // Why the last commit failed, until one succeeds again
+    private RuntimeException commitFailure;
+
+    public MessageLog(Path directory, int segmentBytes, long commitIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+            List<Path> sorted = new ArrayList<>();
+            files.forEach(sorted::add);
+            Collections.sort(sorted);
+            for (Path file : sorted) {
+                long baseOffset = Long.parseLong(file.getFileName().toString().replace(".log", ""));
+                segments.add(new Segment(file, baseOffset));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.add(new Segment(segmentFile(0), 0));
+        }
+        nextOffset = segments.get(segments.size() - 1).nextOffset;
+        durableOffset = nextOffset;
+
+        committer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "message-log-commit");
+            t.setDaemon(true);
+            return t;
+        });
+        committer.scheduleWithFixedDelay(this::commit, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Adds a message for the given recipient and returns its offset.
+    // It is on disk once awaitDurable(offset) returns.
+    public synchronized long append(String recipientId, String msg) throws IOException {
+        byte[] recipient = recipientId.getBytes(StandardCharsets.UTF_8);
+        byte[] body = msg.getBytes(StandardCharsets.UTF_8);
+        int length = 4 + recipient.length + body.length;
+        if (4 + length > segmentBytes) {
+            throw new IllegalArgumentException("Message too large for a log segment");
+        }
+
+        Segment active = segments.get(segments.size() - 1);
+        if (active.end + 4 + length > segmentBytes) {
+            active.buffer.force();
+            active = new Segment(segmentFile(nextOffset), nextOffset);
+            segments.add(active);
+        }
+
+        ByteBuffer buffer = active.buffer;
+        int at = active.end;
+        buffer.putInt(at + 4, recipient.length);
+        buffer.put(at + 8, recipient);
+        buffer.put(at + 8 + recipient.length, body);
+        // Length goes in last: a record with a zero length was never finished
+        buffer.putInt(at, length);
+        active.addRecord(nextOffset, at, 4 + length);
+        return nextOffset++;
+    }
+
+    // Throws if the log can't currently be forced to disk, instead of waiting for good
+    public synchronized void awaitDurable(long offset) throws InterruptedException {
+        while (durableOffset <= offset) {
+            if (commitFailure != null) {
+                throw new IllegalStateException("Message log could not be forced to disk", commitFailure);
+            }
+            wait();
+        }
+    }
+
+    // Sends every message for userId with offset >= fromOffset to the consumer, in order,
+    // and returns the offset to continue from next time
+    public long replay(String userId, long fromOffset, java.util.function.Consumer<String> consumer) {
+        byte[] recipient = userId.getBytes(StandardCharsets.UTF_8);
+        List<Segment> snapshot;
+        long end;
+        synchronized (this) {
+            snapshot = new ArrayList<>(segments);
+            end = nextOffset;
+        }
+
+        int first = 0;
+        while (first + 1 < snapshot.size() && snapshot.get(first + 1).baseOffset <= fromOffset) {
+            first++;
+        }
+        for (int i = first; i < snapshot.size(); i++) {
+            Segment segment = snapshot.get(i);
+            ByteBuffer buffer = segment.buffer.duplicate();
+            long offset;
+            int position;
+            long segmentEnd;
+            synchronized (this) {
+                long[] start = segment.seek(Math.max(fromOffset, segment.baseOffset));
+                offset = start[0];
+                position = (int) start[1];
+                segmentEnd = Math.min(end, segment.nextOffset);
+            }
+            for (; offset < segmentEnd; offset++) {
+                int length = buffer.getInt(position);
+                if (offset >= fromOffset && matches(buffer, position + 8, buffer.getInt(position + 4), recipient)) {
+                    int bodyAt = position + 8 + recipient.length;
+                    byte[] body = new byte[position + 4 + length - bodyAt];
+                    buffer.get(bodyAt, body);
+                    consumer.accept(new String(body, StandardCharsets.UTF_8));
+                }
+                position += 4 + length;
+            }
+        }
+        return Math.max(fromOffset, end);
+    }
+
+    @Override
+    public void close() {
+        committer.shutdown();
+        commit();
+        synchronized (this) {
+            if (commitFailure != null) {
+                throw commitFailure;
+            }
+        }
+    }
+
+    // Runs on the scheduler, so it must not throw: that would silently cancel every later commit.
+    // A failure is kept and handed to waiters instead, and the next commit tries again.
+    private void commit() {
+        Segment active;
+        long upTo;
+        synchronized (this) {
+            active = segments.get(segments.size() - 1);
+            upTo = nextOffset;
+        }
+        try {
+            active.buffer.force();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                commitFailure = e;
+                notifyAll();
+            }
+            return;
+        }
+        synchronized (this) {
+            durableOffset = Math.max(durableOffset, upTo);
+            commitFailure = null;
+            notifyAll();
+        }
+    }
+
+    private static boolean matches(ByteBuffer buffer, int at, int length, byte[] recipient) {
+        if (length != recipient.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(at + i) != recipient[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path segmentFile(long baseOffset) {
+        return directory.resolve(String.format("%020d.log", baseOffset));
+    }
+
+    private class Segment {
+        private final long baseOffset;
+        private final MappedByteBuffer buffer;
+        private int end;
+        private long nextOffset;
+        // Sparse index: offset and file position of every INDEX_INTERVAL-th record
+        private long[] indexOffsets = new long[16];
+        private int[] indexPositions = new int[16];
+        private int indexSize;
+
+        Segment(Path file, long baseOffset) throws IOException {
+            this.baseOffset = baseOffset;
+            this.nextOffset = baseOffset;
+            try (FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            }
+            // Rebuild end and index from what's already in the file
+            while (end + 4 <= segmentBytes && buffer.getInt(end) != 0) {
+                addRecord(nextOffset, end, 4 + buffer.getInt(end));
+            }
+        }
+
+        void addRecord(long offset, int position, int size) {
+            if ((offset - baseOffset) % INDEX_INTERVAL == 0) {
+                if (indexSize == indexOffsets.length) {
+                    indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+                    indexPositions = Arrays.copyOf(indexPositions, indexSize * 2);
+                }
+                indexOffsets[indexSize] = offset;
+                indexPositions[indexSize++] = position;
+            }
+            end = position + size;
+            nextOffset = offset + 1;
+        }
+
+        // {offset, position} of the last indexed record at or before the given offset
+        long[] seek(long offset) {
+            int lo = 0, hi = indexSize - 1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (indexOffsets[mid] <= offset) lo = mid; else hi = mid - 1;
+            }
+            return indexSize == 0 ? new long[] {baseOffset, 0} : new long[] {indexOffsets[lo], indexPositions[lo]};
+        }
+    }
+}
+
+// Mediator decorator that writes every message to a MessageLog before delivering it,
+// and can replay a user's messages from any offset
+public class LoggingChatRoom implements IChatRoom {
+    private final IChatRoom room;
+    private final MessageLog log;
+    private final Map<String, User> users = new ConcurrentHashMap<>();
+
+    public LoggingChatRoom(IChatRoom room, MessageLog log) {
+        this.room = room;
+        this.log = log;
+    }
+
+    @Override
+    public void sendMessage(String msg, String userId) {
+        try {
+            log.append(userId, msg);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        room.sendMessage(msg, userId);
+    }
+
+    @Override
+    public void addUser(User user) {
+        users.put(user.getId(), user);
+        room.addUser(user);
+    }
+
+    // Redelivers the user's messages from fromOffset on; returns where to continue next time
+    public long replay(String userId, long fromOffset) {
+        User u = users.get(userId);
+        if (u == null) {
+            throw new IllegalArgumentException("Unknown user: " + userId);
+        }
+        return log.replay(userId, fromOffset, u::receive);
+    }
+}
+
+// Rough timing of fan-out to one 10k-member group: a loop of sendMessage() vs broadcast().
+// Run with: java BroadcastBenchmark
+public class BroadcastBenchmark
+{
+    public static void main(String[] args) throws InterruptedException
+    {
+        int members = 10_000;
+        int messages = 200;
+        ShardedChatRoom room = new ShardedChatRoom(Runtime.getRuntime().availableProcessors());
+        LongAdder delivered = new LongAdder();
+        room.createGroup("all");
+        // Made up front so the sendMessage loop times only the sends
+        String[] ids = new String[members];
+        for (int i = 0; i < members; i++) {
+            String id = ids[i] = Integer.toString(i);
+            room.addUser(new User(room, id, id) {
+                public void send(String msg, String userId) { getMediator().sendMessage(msg, userId); }
+                public void receive(String msg) { delivered.increment(); }
+            });
+            room.joinGroup("all", id);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int m = 0; m < messages; m++) {
+                for (int i = 0; i < members; i++) {
+                    room.sendMessage("hello", ids[i]);
+                }
+            }
+            waitFor(delivered, (long) members * messages);
+            long oneByOne = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int m = 0; m < messages; m++) {
+                room.broadcast("hello", "all");
+            }
+            waitFor(delivered, (long) members * messages);
+            long batched = System.nanoTime() - start;
+
+            long count = (long) members * messages;
+            System.out.println("sendMessage loop " + oneByOne / count + " ns, broadcast "
+                + batched / count + " ns per recipient");
+        }
+        room.shutdown();
+    }
+
+    private static void waitFor(LongAdder delivered, long expected) throws InterruptedException
+    {
+        while (delivered.sum() < expected) {
+            Thread.sleep(1);
+        }
+        delivered.reset();
+    }
+}
+
 // Main class
 public class Main 
 {
-    public static void main(String[] args) 
+    public static void main(String[] args) throws InterruptedException, IOException
     {
         IChatRoom chatroom = new ChatRoom();
         
@@ -115,5 +885,52 @@ public class Main
 
         // Brian :: Sending Message : Hey buddy
         // Alex :: Received Message : Hey buddy
+
+        // Same conversation through the sharded room; delivery happens on the
+        // recipient's shard thread, so the order of the lines may differ
+        ShardedChatRoom shardedRoom = new ShardedChatRoom(Runtime.getRuntime().availableProcessors());
+        User user5 = new ChatUser(shardedRoom, "5", "Emma");
+        User user6 = new ChatUser(shardedRoom, "6", "Frank");
+        shardedRoom.addUser(user5);
+        shardedRoom.addUser(user6);
+
+        user5.send("Hello frank", "6");
+        user6.send("Hi emma", "5");
+
+        // Everyone in a group gets the broadcast
+        shardedRoom.createGroup("friends");
+        shardedRoom.joinGroup("friends", "5");
+        shardedRoom.joinGroup("friends", "6");
+        shardedRoom.broadcast("Party tonight!", "friends");
+        shardedRoom.shutdown();
+
+        // Mailbox room: send() returns once the message is queued for the receiver
+        MailboxChatRoom mailboxRoom = new MailboxChatRoom(100, OverflowPolicy.DROP_OLDEST);
+        User user7 = new ChatUser(mailboxRoom, "7", "Grace");
+        User user8 = new ChatUser(mailboxRoom, "8", "Henry");
+        mailboxRoom.addUser(user7);
+        mailboxRoom.addUser(user8);
+
+        user7.send("Hello henry", "8");
+        user8.send("Hi grace", "7");
+        mailboxRoom.shutdown();
+
+        // Logged room: Ivan gets everything sent to him again after reconnecting
+        try (MessageLog log = new MessageLog(Files.createTempDirectory("chat-log"), 1 << 20, 5)) {
+            LoggingChatRoom loggedRoom = new LoggingChatRoom(new ChatRoom(), log);
+            User user9 = new ChatUser(loggedRoom, "9", "Ivan");
+            User user10 = new ChatUser(loggedRoom, "10", "Julia");
+            loggedRoom.addUser(user9);
+            loggedRoom.addUser(user10);
+
+            user10.send("Hello ivan", "9");
+            user10.send("Are you there?", "9");
+            System.out.println("Ivan reconnects...");
+            loggedRoom.replay("9", 0);
+        }
+
+        // Binary messages: encoded once into a pooled buffer and passed through as is
+        MessageBufferPool pool = new MessageBufferPool(4096);
+        user1.send(pool.encode("Hello from a buffer"), "2");
     }
 }
\ No newline at end of file
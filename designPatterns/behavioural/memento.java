@@ -12,9 +12,18 @@
 //  Also refer notes from Udemy course!
 // When we save, we take a snapshot for the state for our textbox
 
+ import java.io.*;
+ import java.nio.*;
+ import java.nio.channels.*;
+ import java.nio.charset.StandardCharsets;
+ import java.nio.file.*;
  import java.util.*;
+ import java.util.concurrent.*;
+ import java.util.concurrent.atomic.AtomicLong;
+ import java.util.function.Consumer;
+ import java.util.zip.*;
  class MementoPattern {
-     public static void main(String[] args) {
+     public static void main(String[] args) throws IOException {
          Editor editor = new Editor();
          editor.write("Hi");
          editor.save();
@@ -29,76 +38,1063 @@
          editor.redo();
          editor.redo();
          editor.redo();
+ 
+         // Same session, but saves only keep what changed (full snapshot every 4 saves)
+         Editor deltaEditor = new Editor(4);
+         deltaEditor.write("Hi");
+         deltaEditor.save();
+         deltaEditor.write(" I am");
+         deltaEditor.save();
+         deltaEditor.undo();
+         deltaEditor.redo();
+ 
+         // Rope-backed text box: cheap edits and snapshots for huge documents
+         Editor ropeEditor = new Editor(new RopeTextBox());
+         ropeEditor.write("Hi");
+         ropeEditor.save();
+         ropeEditor.write(" I am");
+         ropeEditor.undo();
+ 
+         // Bounded history: at most 3 snapshots, all but the newest one compressed
+         Editor boundedEditor = new Editor(new TextBox(), new History(3, 1 << 20, 1), 0);
+         boundedEditor.write("One");
+         boundedEditor.save();
+         boundedEditor.write(" two");
+         boundedEditor.save();
+         boundedEditor.write(" three");
+         boundedEditor.save();
+         boundedEditor.undo();
+         boundedEditor.undo();
+         boundedEditor.undo();
+ 
+         // Unlimited history: only the newest 2 snapshots stay on the heap, the rest go to disk
+         try (SpillingMementoStore store = new SpillingMementoStore(
+                 Files.createTempDirectory("history"), 2, 1 << 24)) {
+             Editor spillingEditor = new Editor(new TextBox(), new History(store), 0);
+             spillingEditor.write("Old");
+             spillingEditor.save();
+             spillingEditor.write(" new");
+             spillingEditor.save();
+             spillingEditor.write(" newest");
+             spillingEditor.save();
+             spillingEditor.undo();
+             spillingEditor.undo();
+         }
+ 
+         // Async save: writing goes on while the snapshot is stored in the background
+         Editor asyncEditor = new Editor();
+         asyncEditor.write("Draft");
+         CompletableFuture<Void> saved = asyncEditor.saveAsync();
+         asyncEditor.write(" and more");
+         saved.join();
+         asyncEditor.undo();
+         asyncEditor.redo();
      }
  }
  
  class Editor {
-     private List<Memento> mementoList;
-     private int pointer;
+     private History history;
      private TextBox textBox;
+     // 0 = every save is a full snapshot, otherwise a full one every this many saves
+     private int keyframeInterval;
+     // Background thread for saveAsync(), and the last save handed to it
+     private final ExecutorService saver = Executors.newSingleThreadExecutor(r -> {
+         Thread t = new Thread(r, "editor-saver");
+         t.setDaemon(true);
+         return t;
+     });
+     private CompletableFuture<Void> pendingSave = CompletableFuture.completedFuture(null);
  
      public Editor() {
-         mementoList = new ArrayList<>();
-         mementoList.add(new Memento("")); // first snapshot at empty file
-         pointer = 0;
-         textBox = new TextBox();
+         this(new TextBox(), new History(), 0);
+     }
+ 
+     // Delta mode: saves only store what changed since the previous save
+     public Editor(int keyframeInterval) {
+         this(new TextBox(), new History(), keyframeInterval);
      }
  
-     public void write(String s) {
+     // Edits a different kind of text box, e.g. a RopeTextBox for very large documents
+     public Editor(TextBox textBox) {
+         this(textBox, new History(), 0);
+     }
+ 
+     public Editor(TextBox textBox, History history, int keyframeInterval) {
+         this.textBox = textBox;
+         this.history = history;
+         this.keyframeInterval = keyframeInterval;
+         history.add(new Memento("")); // first snapshot at empty file
+     }
+ 
+     public synchronized void write(String s) {
          textBox.addText(s);
-         System.out.println(textBox.showText());
+         textBox.render(System.out);
+         System.out.println();
      }
  
-     public void save() {
-         mementoList.add(textBox.save());
-         pointer++;
+     public synchronized void save() {
+         awaitPendingSaves();
+         if (keyframeInterval > 0) {
+             history.add(textBox.saveDelta(history.current(), keyframeInterval));
+         } else {
+             history.add(textBox.save());
+         }
          System.out.println("Saved");
      }
  
-     public void undo() {
-         if(pointer > 0) pointer--;
-         textBox.restore(mementoList.get(pointer));
-         System.out.println(textBox.showText());
+     // Like save(), but only grabs an immutable view of the text here (cheap: see
+     // TextBox.snapshot()); turning it into a memento and storing it happens on a background
+     // thread. write() can carry on meanwhile. Saves are stored in the order they were made,
+     // and undo()/redo()/save() wait for pending ones first.
+     public synchronized CompletableFuture<Void> saveAsync() {
+         CharSequence snapshot = textBox.snapshot();
+         // Chained after the previous save whether or not that one worked: a failed save only
+         // fails its own future, never the saves after it
+         pendingSave = pendingSave.exceptionally(e -> null).thenRunAsync(
+             () -> history.add(textBox.mementoOf(snapshot, history.current(), keyframeInterval)), saver);
+         return pendingSave;
+     }
+ 
+     // Waits for saveAsync() calls still running. Their failures went to their own futures,
+     // so they aren't thrown again here.
+     private void awaitPendingSaves() {
+         pendingSave.exceptionally(e -> null).join();
+     }
+ 
+     public synchronized void undo() {
+         awaitPendingSaves();
+         textBox.restore(history.undo());
+         textBox.render(System.out);
+         System.out.println();
      }
  
-     public void redo() {
-         if(pointer < mementoList.size() - 1) pointer++;
-         textBox.restore(mementoList.get(pointer));
-         System.out.println(textBox.showText());
+     public synchronized void redo() {
+         awaitPendingSaves();
+         textBox.restore(history.redo());
+         textBox.render(System.out);
+         System.out.println();
      }
  }
  
+ // Caretaker that keeps the Editor's mementos and where we are in them.
+ // Saving after an undo throws away the redo tail first, as any editor does.
+ // It can also be bounded: only the newest maxEntries mementos and at most about maxBytes are
+ // kept, oldest evicted first. Mementos older than the newest `uncompressedEntries` get
+ // Deflate-compressed on a background thread, so long sessions don't keep growing the heap.
+ // (A delta memento keeps its base alive, so evicting a keyframe only frees memory once
+ // the deltas built on it are evicted too.)
+ class History {
+     private final MementoStore mementos;
+     private int pointer = -1;
+     private final int maxEntries;
+     private final long maxBytes;
+     private final int uncompressedEntries;
+     private final ExecutorService compressor;
+ 
+     // Unbounded, nothing compressed
+     public History() {
+         this(new HeapMementoStore());
+     }
+ 
+     // Unbounded, kept wherever the store keeps it (e.g. spilled to disk)
+     public History(MementoStore store) {
+         this(store, Integer.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE);
+     }
+ 
+     public History(int maxEntries, long maxBytes, int uncompressedEntries) {
+         this(new HeapMementoStore(), maxEntries, maxBytes, uncompressedEntries);
+     }
+ 
+     public History(MementoStore store, int maxEntries, long maxBytes, int uncompressedEntries) {
+         this.mementos = store;
+         this.maxEntries = maxEntries;
+         this.maxBytes = maxBytes;
+         this.uncompressedEntries = uncompressedEntries;
+         this.compressor = Executors.newSingleThreadExecutor(r -> {
+             Thread t = new Thread(r, "memento-compressor");
+             t.setDaemon(true);
+             return t;
+         });
+     }
+ 
+     public synchronized void add(Memento m) {
+         while (mementos.size() > pointer + 1) {
+             mementos.removeLast();
+         }
+         mementos.add(m);
+         pointer = mementos.size() - 1;
+ 
+         while (mementos.size() > 1 && (mementos.size() > maxEntries || overBytes())) {
+             mementos.removeFirst();
+             pointer--;
+         }
+ 
+         int toCompress = mementos.size() - 1 - uncompressedEntries;
+         if (toCompress >= 0) {
+             Memento old = mementos.get(toCompress);
+             compressor.execute(() -> {
+                 old.compress();
+                 synchronized (this) {
+                     mementos.resized(old);
+                 }
+             });
+         }
+     }
+ 
+     public synchronized Memento current() {
+         return mementos.get(pointer);
+     }
+ 
+     public synchronized Memento undo() {
+         if (pointer > 0) pointer--;
+         return mementos.get(pointer);
+     }
+ 
+     public synchronized Memento redo() {
+         if (pointer < mementos.size() - 1) pointer++;
+         return mementos.get(pointer);
+     }
+ 
+     public synchronized int size() {
+         return mementos.size();
+     }
+ 
+     public synchronized long sizeInBytes() {
+         return mementos.sizeInBytes();
+     }
+ 
+     private boolean overBytes() {
+         return maxBytes != Long.MAX_VALUE && mementos.sizeInBytes() > maxBytes;
+     }
+ }
+ 
+ // Where a History keeps its mementos, oldest first
+ interface MementoStore {
+     int size();
+     Memento get(int index);
+     void add(Memento m);
+     void removeFirst();
+     void removeLast();
+     // Heap taken by the mementos (ones kept elsewhere count as 0)
+     long sizeInBytes();
+     // Called when a stored memento's size has changed, e.g. after it was compressed
+     void resized(Memento m);
+ }
+ 
+ // Keeps a running total of the mementos' sizes, so sizeInBytes() is O(1). Each memento's size
+ // is remembered as it was counted, so it can be taken off again exactly when it goes.
+ class HeapMementoStore implements MementoStore {
+     private final List<Memento> mementos = new ArrayList<>();
+     private final Map<Memento, Long> counted = new IdentityHashMap<>();
+     private long bytes;
+ 
+     public int size() { return mementos.size(); }
+     public Memento get(int index) { return mementos.get(index); }
+     public long sizeInBytes() { return bytes; }
+ 
+     public void add(Memento m) {
+         mementos.add(m);
+         long size = m.sizeInBytes();
+         counted.put(m, size);
+         bytes += size;
+     }
+ 
+     public void removeFirst() { uncount(mementos.remove(0)); }
+     public void removeLast() { uncount(mementos.remove(mementos.size() - 1)); }
+ 
+     // Ignored for mementos that have been removed meanwhile
+     public void resized(Memento m) {
+         Long before = counted.get(m);
+         if (before != null) {
+             long size = m.sizeInBytes();
+             counted.put(m, size);
+             bytes += size - before;
+         }
+     }
+ 
+     private void uncount(Memento m) {
+         Long size = counted.remove(m);
+         if (size != null) {
+             bytes -= size;
+         }
+     }
+ }
+ 
+ // Keeps the newest `hotEntries` mementos on the heap and writes older ones, as UTF-8 text, to
+ // append-only memory-mapped segment files in `directory`. Only an offset and a length per
+ // spilled memento stay on the heap; get() hands out a small SpilledMemento that reads the text
+ // from the mapping when asked, so undo/redo deep into history page it back in lazily.
+ // When a bounded History evicts the oldest mementos, the index arrays are compacted and
+ // segments that only held evicted text are unmapped and deleted, so heap and disk use follow
+ // what the history still holds instead of everything ever spilled.
+ // Mementos that reference others (deltas) are written out as full text. Their bases can
+ // stay reachable from the newer deltas still on the heap, so full or rope snapshots suit
+ // this store best.
+ class SpillingMementoStore implements MementoStore, Closeable {
+     private final Path directory;
+     private final int segmentBytes;
+     // Segment n of the spilled text is segments.get(n - firstSegment); older ones are deleted
+     private final List<MappedByteBuffer> segments = new ArrayList<>();
+     private long firstSegment;
+     private final int hotEntries;
+     private final HeapMementoStore hot = new HeapMementoStore();
+ 
+     // Spilled memento i (from the oldest still kept, `first`) is at offsets[i], lengths[i] bytes
+     private long[] offsets = new long[64];
+     private int[] lengths = new int[64];
+     private int first;
+     private int spilled;
+     private long end;
+ 
+     public SpillingMementoStore(Path directory, int hotEntries, int segmentBytes) throws IOException {
+         Files.createDirectories(directory);
+         this.directory = directory;
+         this.hotEntries = hotEntries;
+         this.segmentBytes = segmentBytes;
+     }
+ 
+     public synchronized int size() {
+         return spilled - first + hot.size();
+     }
+ 
+     public synchronized Memento get(int index) {
+         int onDisk = spilled - first;
+         if (index >= onDisk) {
+             return hot.get(index - onDisk);
+         }
+         return new SpilledMemento(this, offsets[first + index], lengths[first + index]);
+     }
+ 
+     // Either the memento is added or, if spilling the oldest one fails, nothing changes
+     public synchronized void add(Memento m) {
+         hot.add(m);
+         if (hot.size() > hotEntries) {
+             try {
+                 spill(hot.get(0));
+             } catch (RuntimeException e) {
+                 hot.removeLast();
+                 throw e;
+             }
+             hot.removeFirst();
+         }
+     }
+ 
+     public synchronized void removeFirst() {
+         if (spilled == first) {
+             hot.removeFirst();
+             return;
+         }
+         first++;
+         // Compact the index once the dead part at the front is more than half of it
+         if (first > offsets.length / 2) {
+             System.arraycopy(offsets, first, offsets, 0, spilled - first);
+             System.arraycopy(lengths, first, lengths, 0, spilled - first);
+             spilled -= first;
+             first = 0;
+         }
+         // Segments entirely before the oldest text still kept are dead
+         long live = spilled > first ? offsets[first] : end;
+         while (firstSegment < live / segmentBytes && !segments.isEmpty()) {
+             segments.remove(0);
+             deleteSegmentFile(firstSegment++);
+         }
+     }
+ 
+     // The newest spilled entry can be overwritten by the next one
+     public synchronized void removeLast() {
+         if (hot.size() > 0) {
+             hot.removeLast();
+         } else {
+             end = offsets[--spilled];
+         }
+     }
+ 
+     public synchronized long sizeInBytes() {
+         return hot.sizeInBytes();
+     }
+ 
+     public synchronized void resized(Memento m) {
+         hot.resized(m);
+     }
+ 
+     // The spilled text is gone after this
+     @Override
+     public synchronized void close() {
+         for (int i = 0; i < segments.size(); i++) {
+             deleteSegmentFile(firstSegment + i);
+         }
+         segments.clear();
+     }
+ 
+     synchronized String read(long offset, int length) {
+         byte[] bytes = new byte[length];
+         for (int done = 0; done < length; ) {
+             long at = offset + done;
+             int n = (int) Math.min(length - done, segmentBytes - at % segmentBytes);
+             segment(at).get((int) (at % segmentBytes), bytes, done, n);
+             done += n;
+         }
+         return new String(bytes, StandardCharsets.UTF_8);
+     }
+ 
+     // Snapshots are written back to back and may run over into the next segment(s),
+     // so any size fits
+     private void spill(Memento m) {
+         byte[] bytes = m.getText().getBytes(StandardCharsets.UTF_8);
+         long offset = end;
+         for (int done = 0; done < bytes.length; ) {
+             long at = offset + done;
+             int n = (int) Math.min(bytes.length - done, segmentBytes - at % segmentBytes);
+             segment(at).put((int) (at % segmentBytes), bytes, done, n);
+             done += n;
+         }
+ 
+         if (spilled == offsets.length) {
+             offsets = Arrays.copyOf(offsets, spilled * 2);
+             lengths = Arrays.copyOf(lengths, spilled * 2);
+         }
+         offsets[spilled] = offset;
+         lengths[spilled++] = bytes.length;
+         end = offset + bytes.length;
+     }
+ 
+     private MappedByteBuffer segment(long offset) {
+         long index = offset / segmentBytes;
+         try {
+             while (firstSegment + segments.size() <= index) {
+                 long n = firstSegment + segments.size();
+                 try (FileChannel channel = FileChannel.open(segmentFile(n), StandardOpenOption.CREATE,
+                         StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                     // The mapping stays valid after the channel is closed
+                     segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+                 }
+             }
+         } catch (IOException e) {
+             throw new UncheckedIOException(e);
+         }
+         return segments.get((int) (index - firstSegment));
+     }
+ 
+     private Path segmentFile(long index) {
+         return directory.resolve("segment-" + index + ".bin");
+     }
+ 
+     // The mapping itself goes away once it is garbage collected. Systems that won't delete a
+     // file that is still mapped (Windows) get it deleted on exit instead.
+     private void deleteSegmentFile(long index) {
+         Path file = segmentFile(index);
+         try {
+             Files.deleteIfExists(file);
+         } catch (IOException e) {
+             file.toFile().deleteOnExit();
+         }
+     }
+ }
+ 
+
+ // Placeholder for a memento that lives in a SpillingMementoStore's file
+ class SpilledMemento extends Memento {
+     private final SpillingMementoStore store;
+     private final long offset;
+     private final int length;
+ 
+     public SpilledMemento(SpillingMementoStore store, long offset, int length) {
+         super(null);
+         this.store = store;
+         this.offset = offset;
+         this.length = length;
+     }
+ 
+     @Override
+     public String getText() {
+         return store.read(offset, length);
+     }
+ }
+ 
+ // Text kept as a list of chunks of about CHUNK characters, so a snapshot is cheap:
+ // snapshot() only copies the list of chunk references and marks every chunk as shared, and an
+ // edit copies just the one chunk it touches (copy-on-write per chunk), never the whole document.
  class TextBox {
-     private StringBuilder text;
+     private static final int CHUNK = 1 << 16;
+ 
+     private final List<Chunk> chunks = new ArrayList<>();
+     private int length;
  
      public TextBox() {
-         this.text = new StringBuilder();
+         chunks.add(new Chunk(new StringBuilder()));
      }
  
      public void addText(String s) {
-         text.append(s);
+         insertText(length, s);
+     }
+ 
+     public void insertText(int index, String s) {
+         if (index < 0 || index > length) {
+             throw new StringIndexOutOfBoundsException(index);
+         }
+         int i = 0;
+         int start = 0;
+         // The chunk the index falls in; an index between two chunks goes to the earlier one
+         while (start + chunks.get(i).text.length() < index) {
+             start += chunks.get(i++).text.length();
+         }
+         Chunk chunk = chunks.get(i);
+         chunk.unshare();
+         chunk.text.insert(index - start, s);
+         length += s.length();
+         if (chunk.text.length() > 2 * CHUNK) {
+             split(i);
+         }
      }
  
      public String showText() {
-         return text.toString();
+         return snapshot().toString();
+     }
+ 
+     public void render(PrintStream out) {
+         for (Chunk chunk : chunks) {
+             out.print(chunk.text);
+         }
      }
  
      public Memento save() {
-         return new Memento(text.toString());
+         return new Memento(showText());
+     }
+ 
+     public Memento saveDelta(Memento previous, int keyframeInterval) {
+         return DeltaMemento.between(previous, snapshot(), keyframeInterval);
+     }
+ 
+     // Immutable view of the current text, O(number of chunks): see the class comment
+     public CharSequence snapshot() {
+         StringBuilder[] frozen = new StringBuilder[chunks.size()];
+         for (int i = 0; i < frozen.length; i++) {
+             Chunk chunk = chunks.get(i);
+             chunk.shared = true;
+             frozen[i] = chunk.text;
+         }
+         return new ChunkedText(frozen);
+     }
+ 
+     // Turns a snapshot() into a memento; safe to call from another thread.
+     // keyframeInterval works as in Editor (0 = full snapshot).
+     public Memento mementoOf(CharSequence snapshot, Memento previous, int keyframeInterval) {
+         if (keyframeInterval > 0) {
+             return DeltaMemento.between(previous, snapshot, keyframeInterval);
+         }
+         return new Memento(snapshot.toString());
      }
  
      public void restore(Memento m) {
-         this.text = new StringBuilder(m.getText());
+         String text = m.getText();
+         chunks.clear();
+         for (int from = 0; from < text.length() || chunks.isEmpty(); from += CHUNK) {
+             chunks.add(new Chunk(new StringBuilder(text.substring(from, Math.min(text.length(), from + CHUNK)))));
+         }
+         length = text.length();
+     }
+ 
+     // Cuts a chunk that grew too big back into CHUNK-sized ones
+     private void split(int i) {
+         String text = chunks.remove(i).text.toString();
+         for (int from = 0; from < text.length(); from += CHUNK) {
+             chunks.add(i++, new Chunk(new StringBuilder(text.substring(from, Math.min(text.length(), from + CHUNK)))));
+         }
+     }
+ 
+     private static class Chunk {
+         private StringBuilder text;
+         // Handed out by snapshot(), so it must be copied before it changes again
+         private boolean shared;
+ 
+         Chunk(StringBuilder text) {
+             this.text = text;
+         }
+ 
+         void unshare() {
+             if (shared) {
+                 text = new StringBuilder(text);
+                 shared = false;
+             }
+         }
+     }
+ }
+ 
+ // Read-only text made of chunks that are never changed again (see TextBox.snapshot())
+ final class ChunkedText implements CharSequence {
+     private final StringBuilder[] chunks;
+     private final int[] starts; // starts[i] = index of the first character of chunks[i]
+     private final int length;
+ 
+     ChunkedText(StringBuilder[] chunks) {
+         this.chunks = chunks;
+         this.starts = new int[chunks.length];
+         int length = 0;
+         for (int i = 0; i < chunks.length; i++) {
+             starts[i] = length;
+             length += chunks[i].length();
+         }
+         this.length = length;
+     }
+ 
+     @Override
+     public int length() {
+         return length;
+     }
+ 
+     @Override
+     public char charAt(int index) {
+         if (index < 0 || index >= length) {
+             throw new StringIndexOutOfBoundsException(index);
+         }
+         int i = chunkOf(index);
+         return chunks[i].charAt(index - starts[i]);
+     }
+ 
+     @Override
+     public CharSequence subSequence(int start, int end) {
+         StringBuilder out = new StringBuilder(end - start);
+         for (int i = start < length ? chunkOf(start) : chunks.length; i < chunks.length && starts[i] < end; i++) {
+             out.append(chunks[i], Math.max(0, start - starts[i]), Math.min(chunks[i].length(), end - starts[i]));
+         }
+         return out.toString();
+     }
+ 
+     @Override
+     public String toString() {
+         StringBuilder out = new StringBuilder(length);
+         for (StringBuilder chunk : chunks) {
+             out.append(chunk);
+         }
+         return out.toString();
+     }
+ 
+     // Number of leading characters that are the same as other's, at most max.
+     // Walks the chunks directly instead of looking each index up through charAt().
+     int commonPrefix(String other, int max) {
+         int n = 0;
+         for (StringBuilder chunk : chunks) {
+             for (int j = 0; j < chunk.length(); j++, n++) {
+                 if (n == max || chunk.charAt(j) != other.charAt(n)) {
+                     return n;
+                 }
+             }
+         }
+         return n;
+     }
+ 
+     // Same from the end
+     int commonSuffix(String other, int max) {
+         int n = 0;
+         for (int i = chunks.length - 1; i >= 0; i--) {
+             StringBuilder chunk = chunks[i];
+             for (int j = chunk.length() - 1; j >= 0; j--, n++) {
+                 if (n == max || chunk.charAt(j) != other.charAt(other.length() - 1 - n)) {
+                     return n;
+                 }
+             }
+         }
+         return n;
+     }
+ 
+     // Last chunk starting at or before the index that isn't empty
+     private int chunkOf(int index) {
+         int lo = 0, hi = chunks.length - 1;
+         while (lo < hi) {
+             int mid = (lo + hi + 1) >>> 1;
+             if (starts[mid] <= index) lo = mid; else hi = mid - 1;
+         }
+         while (chunks[lo].length() == 0 || index - starts[lo] >= chunks[lo].length()) {
+             lo++;
+         }
+         return lo;
      }
  }
  
+
  class Memento {
      private String text;
+     private byte[] compressed; // once compressed, text is dropped
      public Memento(String text) {
          this.text = text;
      }
  
-     public String getText() {
+     public synchronized String getText() {
+         if (compressed != null) {
+             return inflate(compressed);
+         }
          return this.text;
      }
+ 
+     // Swaps the text for a Deflate-compressed copy; getText() inflates it again when needed
+     public synchronized void compress() {
+         if (text == null || compressed != null) {
+             return;
+         }
+         Deflater deflater = new Deflater();
+         deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+         deflater.finish();
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         byte[] chunk = new byte[8192];
+         while (!deflater.finished()) {
+             out.write(chunk, 0, deflater.deflate(chunk));
+         }
+         deflater.end();
+         compressed = out.toByteArray();
+         text = null;
+     }
+ 
+     // Rough heap cost of this snapshot, used by History to stay under its byte limit
+     public synchronized long sizeInBytes() {
+         if (compressed != null) {
+             return compressed.length;
+         }
+         return text == null ? 0 : 2L * text.length();
+     }
+ 
+     private static String inflate(byte[] data) {
+         Inflater inflater = new Inflater();
+         inflater.setInput(data);
+         ByteArrayOutputStream out = new ByteArrayOutputStream();
+         byte[] chunk = new byte[8192];
+         try {
+             while (!inflater.finished()) {
+                 out.write(chunk, 0, inflater.inflate(chunk));
+             }
+         } catch (DataFormatException e) {
+             throw new IllegalStateException("Corrupted memento", e);
+         } finally {
+             inflater.end();
+         }
+         return out.toString(StandardCharsets.UTF_8);
+     }
+ }
+ 
+ // Memento that only stores how the text changed since the previous snapshot (its base):
+ // "replace `removed` characters at `start` with `inserted`". Every keyframeInterval-th
+ // snapshot is a full Memento again, so rebuilding the text never walks a long chain:
+ // start from the nearest full snapshot and apply the deltas after it in order.
+ class DeltaMemento extends Memento {
+     private final Memento base;
+     private final int depth; // number of deltas back to the full snapshot
+     private final int start;
+     private final int removed;
+     private final String inserted;
+ 
+     private DeltaMemento(Memento base, int depth, int start, int removed, String inserted) {
+         super(null);
+         this.base = base;
+         this.depth = depth;
+         this.start = start;
+         this.removed = removed;
+         this.inserted = inserted;
+     }
+ 
+     public static Memento between(Memento base, CharSequence text, int keyframeInterval) {
+         int depth = base instanceof DeltaMemento ? ((DeltaMemento) base).depth + 1 : 1;
+         if (depth >= keyframeInterval) {
+             return new Memento(text.toString());
+         }
+ 
+         // Only the part between the common prefix and the common suffix changed
+         String old = base.getText();
+         int max = Math.min(old.length(), text.length());
+         int prefix = 0;
+         int suffix = 0;
+         if (text instanceof ChunkedText) {
+             ChunkedText chunked = (ChunkedText) text;
+             prefix = chunked.commonPrefix(old, max);
+             suffix = chunked.commonSuffix(old, max - prefix);
+         } else {
+             while (prefix < max && old.charAt(prefix) == text.charAt(prefix)) {
+                 prefix++;
+             }
+             while (suffix < max - prefix
+                     && old.charAt(old.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+                 suffix++;
+             }
+         }
+         String inserted = text.subSequence(prefix, text.length() - suffix).toString();
+         return new DeltaMemento(base, depth, prefix, old.length() - prefix - suffix, inserted);
+     }
+ 
+     @Override
+     public long sizeInBytes() {
+         return 2L * inserted.length() + 32;
+     }
+ 
+     @Override
+     public String getText() {
+         Deque<DeltaMemento> deltas = new ArrayDeque<>();
+         Memento m = this;
+         while (m instanceof DeltaMemento) {
+             deltas.push((DeltaMemento) m);
+             m = ((DeltaMemento) m).base;
+         }
+         StringBuilder text = new StringBuilder(m.getText());
+         for (DeltaMemento d : deltas) {
+             text.replace(d.start, d.start + d.removed, d.inserted);
+         }
+         return text.toString();
+     }
+ }
+ 
+ // Immutable text stored as a balanced (AVL) tree of chunks of at most MAX_LEAF characters.
+ // Appending or inserting only rebuilds the O(log n) nodes on one path and shares the rest
+ // with the old version, which is what makes snapshots free: an old version never changes.
+ final class Rope implements CharSequence {
+     private static final int MAX_LEAF = 512;
+     private static final int NODE_BYTES = 48; // rough heap cost of a node, not counting its text
+     // Every node gets a higher serial than all nodes that existed before it, so its children's
+     // serials are always lower than its own and the root has the highest serial in the tree
+     private static final AtomicLong SERIALS = new AtomicLong();
+     static final Rope EMPTY = new Rope("");
+ 
+     private final long serial = SERIALS.incrementAndGet();
+ 
+     private final String leaf; // null for inner nodes
+     private final Rope left;
+     private final Rope right;
+     private final int length;
+     private final int height;
+ 
+     private Rope(String leaf) {
+         this.leaf = leaf;
+         this.left = null;
+         this.right = null;
+         this.length = leaf.length();
+         this.height = 0;
+     }
+ 
+     private Rope(Rope left, Rope right) {
+         this.leaf = null;
+         this.left = left;
+         this.right = right;
+         this.length = left.length + right.length;
+         this.height = Math.max(left.height, right.height) + 1;
+     }
+ 
+     public static Rope of(String s) {
+         return of(s, 0, s.length());
+     }
+ 
+     private static Rope of(String s, int from, int to) {
+         if (to - from <= MAX_LEAF) {
+             return new Rope(s.substring(from, to));
+         }
+         int mid = (from + to) >>> 1;
+         return new Rope(of(s, from, mid), of(s, mid, to));
+     }
+ 
+     public Rope insert(int index, String s) {
+         Rope[] parts = split(index);
+         return concat(concat(parts[0], of(s)), parts[1]);
+     }
+ 
+     public static Rope concat(Rope a, Rope b) {
+         if (a.length == 0) return b;
+         if (b.length == 0) return a;
+         // Small appends go into the last chunk instead of making a new tiny one
+         if (b.leaf != null && b.length < MAX_LEAF) {
+             Rope merged = appendToLastLeaf(a, b.leaf);
+             if (merged != null) return merged;
+         }
+         return join(a, b);
+     }
+ 
+     // Rope of the first `index` characters and rope of the rest
+     public Rope[] split(int index) {
+         if (index <= 0) return new Rope[] {EMPTY, this};
+         if (index >= length) return new Rope[] {this, EMPTY};
+         if (leaf != null) {
+             return new Rope[] {new Rope(leaf.substring(0, index)), new Rope(leaf.substring(index))};
+         }
+         if (index <= left.length) {
+             Rope[] parts = left.split(index);
+             return new Rope[] {parts[0], concat(parts[1], right)};
+         }
+         Rope[] parts = right.split(index - left.length);
+         return new Rope[] {concat(left, parts[0]), parts[1]};
+     }
+ 
+     // Rough heap cost of the nodes of this rope that aren't in `older` (null = all of them).
+     // Anything made before older's root is counted as shared, and whole subtrees of those are
+     // skipped, so this only walks what is new.
+     public long bytesNotIn(Rope older) {
+         return bytesNewerThan(older == null ? 0 : older.serial);
+     }
+ 
+     private long bytesNewerThan(long serial) {
+         if (this.serial <= serial) {
+             return 0;
+         }
+         if (leaf != null) {
+             return NODE_BYTES + 2L * leaf.length();
+         }
+         return NODE_BYTES + left.bytesNewerThan(serial) + right.bytesNewerThan(serial);
+     }
+ 
+     // Hands the text out chunk by chunk, without building one big string
+     public void forEachChunk(Consumer<String> action) {
+         if (leaf != null) {
+             if (length > 0) action.accept(leaf);
+             return;
+         }
+         left.forEachChunk(action);
+         right.forEachChunk(action);
+     }
+ 
+     @Override
+     public int length() {
+         return length;
+     }
+ 
+     @Override
+     public char charAt(int index) {
+         Rope node = this;
+         while (node.leaf == null) {
+             if (index < node.left.length) {
+                 node = node.left;
+             } else {
+                 index -= node.left.length;
+                 node = node.right;
+             }
+         }
+         return node.leaf.charAt(index);
+     }
+ 
+     @Override
+     public CharSequence subSequence(int start, int end) {
+         return split(end)[0].split(start)[1];
+     }
+ 
+     @Override
+     public String toString() {
+         StringBuilder text = new StringBuilder(length);
+         forEachChunk(text::append);
+         return text.toString();
+     }
+ 
+     private static Rope appendToLastLeaf(Rope node, String s) {
+         if (node.leaf != null) {
+             return node.length + s.length() <= MAX_LEAF ? new Rope(node.leaf + s) : null;
+         }
+         Rope right = appendToLastLeaf(node.right, s);
+         return right == null ? null : new Rope(node.left, right);
+     }
+ 
+     // AVL join: walk down the taller side until the heights match, then rebalance on the way up
+     private static Rope join(Rope a, Rope b) {
+         if (a.height > b.height + 1) return balance(a.left, join(a.right, b));
+         if (b.height > a.height + 1) return balance(join(a, b.left), b.right);
+         return new Rope(a, b);
+     }
+ 
+     private static Rope balance(Rope a, Rope b) {
+         if (a.height > b.height + 1) {
+             if (a.left.height >= a.right.height) {
+                 return new Rope(a.left, new Rope(a.right, b));
+             }
+             return new Rope(new Rope(a.left, a.right.left), new Rope(a.right.right, b));
+         }
+         if (b.height > a.height + 1) {
+             if (b.right.height >= b.left.height) {
+                 return new Rope(new Rope(a, b.left), b.right);
+             }
+             return new Rope(new Rope(a, b.left.left), new Rope(b.left.right, b.right));
+         }
+         return new Rope(a, b);
+     }
+ }
+ 
+ // TextBox for very large documents, backed by a Rope.
+ // Edits are O(log n), save() is O(1) because the memento just keeps the current (immutable)
+ // rope, and render() streams the chunks instead of building the whole text first.
+ class RopeTextBox extends TextBox {
+     private Rope rope = Rope.EMPTY;
+     private Rope lastSaved; // the next snapshot is only charged for what it doesn't share with this
+ 
+     @Override
+     public void addText(String s) {
+         rope = Rope.concat(rope, Rope.of(s));
+     }
+ 
+     @Override
+     public void insertText(int index, String s) {
+         rope = rope.insert(index, s);
+     }
+ 
+     @Override
+     public String showText() {
+         return rope.toString();
+     }
+ 
+     @Override
+     public void render(PrintStream out) {
+         rope.forEachChunk(out::print);
+     }
+ 
+     @Override
+     public Memento save() {
+         return mementoOf(rope, null, 0);
+     }
+ 
+     // Snapshots already share structure, a delta wouldn't be any smaller
+     @Override
+     public Memento saveDelta(Memento previous, int keyframeInterval) {
+         return save();
+     }
+ 
+     // The rope never changes, so it already is an immutable snapshot
+     @Override
+     public CharSequence snapshot() {
+         return rope;
+     }
+ 
+     @Override
+     public Memento mementoOf(CharSequence snapshot, Memento previous, int keyframeInterval) {
+         Rope saved = (Rope) snapshot;
+         Memento m = new RopeMemento(saved, lastSaved);
+         lastSaved = saved;
+         return m;
+     }
+ 
+     @Override
+     public void restore(Memento m) {
+         rope = m instanceof RopeMemento ? ((RopeMemento) m).getRope() : Rope.of(m.getText());
+     }
+ }
+ 
+ class RopeMemento extends Memento {
+     private final Rope rope;
+     private final long sizeInBytes;
+ 
+     public RopeMemento(Rope rope) {
+         this(rope, null);
+     }
+ 
+     // Snapshots share most of their nodes, so a snapshot is only charged for the nodes that are
+     // new since `previous` (the rope saved before it). Otherwise a byte-bounded History would
+     // count the whole document once per snapshot and keep only a handful of them.
+     public RopeMemento(Rope rope, Rope previous) {
+         super(null);
+         this.rope = rope;
+         this.sizeInBytes = rope.bytesNotIn(previous);
+     }
+ 
+     public Rope getRope() {
+         return rope;
+     }
+ 
+     // Nodes still shared with an evicted older snapshot aren't counted again, so once the
+     // oldest snapshots are gone this can be somewhat below what the history really holds
+     @Override
+     public long sizeInBytes() {
+         return sizeInBytes;
+     }
+ 
+     @Override
+     public String getText() {
+         return rope.toString();
+     }
  }
\ No newline at end of file